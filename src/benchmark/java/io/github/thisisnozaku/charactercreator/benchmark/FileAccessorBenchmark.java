@@ -0,0 +1,184 @@
+package io.github.thisisnozaku.charactercreator.benchmark;
+
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.github.thisisnozaku.charactercreator.data.access.AmazonS3Adapter;
+import io.github.thisisnozaku.charactercreator.data.access.FileAccessor;
+import io.github.thisisnozaku.charactercreator.data.access.FileInformation;
+import io.github.thisisnozaku.charactercreator.data.access.LocalFileSystemAccess;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the listing, metadata and content throughput of the local file system and S3 FileAccessors under
+ * concurrency, and reports the latency percentiles of each, as a baseline for tuning the plugin loading paths.
+ * <p>
+ * The S3 adapter talks to an in-process {@link S3StandIn} through the real AWS client, so no AWS account is needed.
+ * Settings are read from system properties:
+ * <ul>
+ * <li>benchmark.objects - the number of plugin archives, 200 by default</li>
+ * <li>benchmark.objectBytes - the size of each archive, 1 MiB by default</li>
+ * <li>benchmark.threads - the number of concurrent callers, 8 by default</li>
+ * <li>benchmark.operations - the number of metadata and content operations per run, 1000 by default</li>
+ * <li>benchmark.listings - the number of full listings per run, 20 by default</li>
+ * <li>benchmark.latencyMillis - the latency added to every S3 response, 20 by default</li>
+ * <li>benchmark.bandwidthBytesPerSecond - the bandwidth of every S3 connection, unlimited (0) by default</li>
+ * </ul>
+ */
+public class FileAccessorBenchmark {
+    private static final String BUCKET = "benchmark";
+    private static final String DIRECTORY = "plugins";
+    private final int objects = Integer.getInteger("benchmark.objects", 200);
+    private final int objectBytes = Integer.getInteger("benchmark.objectBytes", 1024 * 1024);
+    private final int threads = Integer.getInteger("benchmark.threads", 8);
+    private final int operations = Integer.getInteger("benchmark.operations", 1000);
+    private final int listings = Integer.getInteger("benchmark.listings", 20);
+    private final long latencyMillis = Long.getLong("benchmark.latencyMillis", 20);
+    private final long bandwidthBytesPerSecond = Long.getLong("benchmark.bandwidthBytesPerSecond", 0);
+
+    public static void main(String[] args) throws Exception {
+        new FileAccessorBenchmark().run();
+    }
+
+    private void run() throws Exception {
+        Path root = Files.createTempDirectory("file-accessor-benchmark");
+        try {
+            Path directory = Files.createDirectories(root.resolve(BUCKET).resolve(DIRECTORY));
+            List<String> names = createArchives(directory);
+            System.out.printf("%d archives of %d bytes, %d threads, S3 latency %d ms, S3 bandwidth %s%n", objects,
+                    objectBytes, threads, latencyMillis,
+                    bandwidthBytesPerSecond > 0 ? bandwidthBytesPerSecond + " bytes/s" : "unlimited");
+
+            List<String> localPaths = new ArrayList<>();
+            for (String name : names) {
+                localPaths.add(directory.resolve(name).toUri().toURL().toExternalForm());
+            }
+            measure("local", new LocalFileSystemAccess(), directory.toString(), localPaths);
+
+            try (S3StandIn standIn = new S3StandIn(root, latencyMillis, bandwidthBytesPerSecond)) {
+                AmazonS3 s3 = AmazonS3ClientBuilder.standard()
+                        .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(standIn.getEndpoint(),
+                                "us-east-1"))
+                        .withPathStyleAccessEnabled(true)
+                        .withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials("benchmark",
+                                "benchmark")))
+                        .build();
+                List<String> keys = new ArrayList<>();
+                for (String name : names) {
+                    keys.add(DIRECTORY + "/" + name);
+                }
+                measure("s3", new AmazonS3Adapter(s3, BUCKET), DIRECTORY, keys);
+                s3.shutdown();
+            }
+        } finally {
+            try (Stream<Path> paths = Files.walk(root)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    private List<String> createArchives(Path directory) throws Exception {
+        Random random = new Random(0);
+        byte[] content = new byte[objectBytes];
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < objects; i++) {
+            random.nextBytes(content);
+            String name = String.format("plugin-%05d.jar", i);
+            Files.write(directory.resolve(name), content);
+            names.add(name);
+        }
+        return names;
+    }
+
+    /**
+     * Runs every scenario against the given FileAccessor, after one untimed pass to warm up.
+     */
+    private void measure(String accessorName, FileAccessor accessor, String directory, List<String> paths)
+            throws Exception {
+        for (boolean warmUp : new boolean[]{true, false}) {
+            report(accessorName, "listing", warmUp, run(listings, index -> {
+                try (Stream<FileInformation> children = accessor.streamFileInformation(directory)) {
+                    return children.count() == paths.size() ? 0 : fail("Listing is incomplete");
+                }
+            }));
+            report(accessorName, "metadata", warmUp, run(operations, index -> {
+                FileInformation file = accessor.getFileInformation(paths.get(index % paths.size()));
+                return file.getSize().isPresent() && file.getContentHash().isPresent() &&
+                        file.getLastModifiedTimestamp().isPresent() ? 0 : fail("Metadata is missing");
+            }));
+            report(accessorName, "content", warmUp, run(operations, index -> {
+                FileInformation file = accessor.getFileInformation(paths.get(index % paths.size()));
+                Optional<InputStream> content = accessor.getContent(file);
+                if (!content.isPresent()) {
+                    return fail("Content is missing");
+                }
+                try (InputStream in = content.get()) {
+                    return ByteStreams.copy(in, ByteStreams.nullOutputStream());
+                }
+            }));
+        }
+    }
+
+    private static void report(String accessorName, String scenario, boolean warmUp, String summary) {
+        if (!warmUp) {
+            System.out.printf("%-6s %-9s %s%n", accessorName, scenario, summary);
+        }
+    }
+
+    /**
+     * Runs the given number of operations on the benchmark threads.
+     *
+     * @return the summary of the run
+     */
+    private String run(int count, Operation operation) throws InterruptedException {
+        LatencyRecorder recorder = new LatencyRecorder(count);
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("benchmark-%d").setDaemon(true).build());
+        long started = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            int index = i;
+            executor.execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    long bytes = operation.run(index);
+                    recorder.record(System.nanoTime() - start, bytes);
+                } catch (Exception ex) {
+                    recorder.failed();
+                    System.err.printf("Operation %d failed: %s%n", index, ex);
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        return recorder.summarize(System.nanoTime() - started);
+    }
+
+    private static long fail(String message) {
+        throw new IllegalStateException(message);
+    }
+
+    @FunctionalInterface
+    private interface Operation {
+        /**
+         * @return the number of bytes transferred
+         */
+        long run(int index) throws Exception;
+    }
+}
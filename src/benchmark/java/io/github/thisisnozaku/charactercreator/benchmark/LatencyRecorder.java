@@ -0,0 +1,57 @@
+package io.github.thisisnozaku.charactercreator.benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the latency of a fixed number of operations run concurrently, along with the bytes they transferred, and
+ * summarizes them as throughput and latency percentiles.
+ */
+class LatencyRecorder {
+    private final long[] latencies;
+    private final AtomicInteger recorded = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    LatencyRecorder(int operations) {
+        this.latencies = new long[operations];
+    }
+
+    void record(long latencyNanos, long transferredBytes) {
+        latencies[recorded.getAndIncrement()] = latencyNanos;
+        bytes.addAndGet(transferredBytes);
+    }
+
+    void failed() {
+        failures.incrementAndGet();
+    }
+
+    /**
+     * Summarizes the recorded operations.
+     *
+     * @param elapsedNanos how long it took to run all of them
+     * @return one line of the report
+     */
+    String summarize(long elapsedNanos) {
+        long[] sorted = Arrays.copyOf(latencies, recorded.get());
+        Arrays.sort(sorted);
+        double seconds = elapsedNanos / 1e9;
+        return String.format("%6d ops %4d failed %10.1f ops/s %9.2f MiB/s   p50 %8.2f  p90 %8.2f  p99 %8.2f  max %8.2f ms",
+                sorted.length, failures.get(), sorted.length / seconds, bytes.get() / seconds / (1024 * 1024),
+                millis(percentile(sorted, 0.50)), millis(percentile(sorted, 0.90)),
+                millis(percentile(sorted, 0.99)), millis(sorted.length > 0 ? sorted[sorted.length - 1] : 0));
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)];
+    }
+
+    private static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
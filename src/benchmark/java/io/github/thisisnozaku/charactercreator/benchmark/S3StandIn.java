@@ -0,0 +1,279 @@
+package io.github.thisisnozaku.charactercreator.benchmark;
+
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * In-process stand-in for S3, serving the files of a local directory over HTTP with path style addressing: the first
+ * directory level holds the buckets and everything below it the objects.
+ * <p>
+ * It answers the requests the S3 adapter makes, which are paginated object listings, metadata requests and object
+ * downloads including byte ranges and ETag constraints. Every response is delayed by a fixed latency, and bodies are
+ * written no faster than a fixed bandwidth per connection, so the adapter can be measured under realistic conditions
+ * without AWS.
+ */
+public class S3StandIn implements Closeable {
+    private static final int CHUNK_BYTES = 8192;
+    private static final DateTimeFormatter LISTING_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'")
+            .withZone(ZoneOffset.UTC);
+    private final Path root;
+    private final long latencyMillis;
+    private final long bandwidthBytesPerSecond;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, String> eTags = new ConcurrentHashMap<>();
+
+    /**
+     * @param root                    the directory holding the buckets
+     * @param latencyMillis           how long every response is delayed
+     * @param bandwidthBytesPerSecond the highest rate at which a response body is written, or 0 for no limit
+     */
+    public S3StandIn(Path root, long latencyMillis, long bandwidthBytesPerSecond) throws IOException {
+        this.root = root;
+        this.latencyMillis = latencyMillis;
+        this.bandwidthBytesPerSecond = bandwidthBytesPerSecond;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.executor = Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder().setNameFormat("s3-stand-in-%d").setDaemon(true).build());
+        server.setExecutor(executor);
+        server.createContext("/", exchange -> {
+            try {
+                handle(exchange);
+            } catch (Exception ex) {
+                error(exchange, 500, "InternalError", String.valueOf(ex.getMessage()));
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * @return the URL to configure as the S3 endpoint
+     */
+    public String getEndpoint() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException, InterruptedException {
+        Thread.sleep(latencyMillis);
+        String path = URLDecoder.decode(exchange.getRequestURI().getRawPath(), "UTF-8").substring(1);
+        String bucket = path.contains("/") ? path.substring(0, path.indexOf('/')) : path;
+        String key = path.contains("/") ? path.substring(path.indexOf('/') + 1) : "";
+        Path bucketDirectory = root.resolve(bucket);
+        if (bucket.isEmpty() || !Files.isDirectory(bucketDirectory)) {
+            error(exchange, 404, "NoSuchBucket", bucket);
+        } else if (key.isEmpty() && "GET".equals(exchange.getRequestMethod())) {
+            list(exchange, bucket, bucketDirectory, query(exchange));
+        } else if ("GET".equals(exchange.getRequestMethod()) || "HEAD".equals(exchange.getRequestMethod())) {
+            Path file = bucketDirectory.resolve(key).normalize();
+            if (!file.startsWith(bucketDirectory) || !Files.isRegularFile(file)) {
+                error(exchange, 404, "NoSuchKey", key);
+            } else {
+                object(exchange, file);
+            }
+        } else {
+            error(exchange, 405, "MethodNotAllowed", exchange.getRequestMethod());
+        }
+    }
+
+    private void list(HttpExchange exchange, String bucket, Path directory, Map<String, String> query)
+            throws IOException {
+        String prefix = query.getOrDefault("prefix", "");
+        String marker = query.getOrDefault("marker", "");
+        int maxKeys = Integer.parseInt(query.getOrDefault("max-keys", "1000"));
+        boolean urlEncoded = "url".equals(query.get("encoding-type"));
+        List<Path> matches;
+        try (Stream<Path> files = Files.walk(directory)) {
+            matches = files.filter(Files::isRegularFile)
+                    .filter(file -> key(directory, file).startsWith(prefix))
+                    .filter(file -> key(directory, file).compareTo(marker) > 0)
+                    .sorted((a, b) -> key(directory, a).compareTo(key(directory, b)))
+                    .limit(maxKeys + 1L)
+                    .collect(Collectors.toList());
+        }
+        boolean truncated = matches.size() > maxKeys;
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>")
+                .append("<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">")
+                .append("<Name>").append(bucket).append("</Name>")
+                .append("<Prefix>").append(encode(prefix, urlEncoded)).append("</Prefix>")
+                .append("<Marker>").append(encode(marker, urlEncoded)).append("</Marker>")
+                .append("<MaxKeys>").append(maxKeys).append("</MaxKeys>")
+                .append("<IsTruncated>").append(truncated).append("</IsTruncated>");
+        if (urlEncoded) {
+            xml.append("<EncodingType>url</EncodingType>");
+        }
+        for (Path file : matches.subList(0, Math.min(maxKeys, matches.size()))) {
+            xml.append("<Contents>")
+                    .append("<Key>").append(encode(key(directory, file), urlEncoded)).append("</Key>")
+                    .append("<LastModified>").append(LISTING_DATE.format(lastModified(file))).append("</LastModified>")
+                    .append("<ETag>\"").append(eTag(file)).append("\"</ETag>")
+                    .append("<Size>").append(Files.size(file)).append("</Size>")
+                    .append("<StorageClass>STANDARD</StorageClass>")
+                    .append("</Contents>");
+        }
+        if (truncated) {
+            xml.append("<NextMarker>").append(encode(key(directory, matches.get(maxKeys - 1)), urlEncoded))
+                    .append("</NextMarker>");
+        }
+        xml.append("</ListBucketResult>");
+        byte[] body = xml.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private void object(HttpExchange exchange, Path file) throws IOException, InterruptedException {
+        long size = Files.size(file);
+        String eTag = eTag(file);
+        String ifMatch = exchange.getRequestHeaders().getFirst("If-Match");
+        if (ifMatch != null && !ifMatch.replace("\"", "").equals(eTag)) {
+            error(exchange, 412, "PreconditionFailed", "If-Match");
+            return;
+        }
+        long start = 0;
+        long end = size - 1;
+        int status = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null && range.startsWith("bytes=")) {
+            String[] bounds = range.substring("bytes=".length()).split("-", 2);
+            start = Long.parseLong(bounds[0]);
+            end = bounds.length > 1 && !bounds[1].isEmpty() ? Math.min(Long.parseLong(bounds[1]), size - 1) : size - 1;
+            status = 206;
+            exchange.getResponseHeaders().set("Content-Range", String.format("bytes %d-%d/%d", start, end, size));
+        }
+        long length = Math.max(0, end - start + 1);
+        exchange.getResponseHeaders().set("ETag", "\"" + eTag + "\"");
+        exchange.getResponseHeaders().set("Last-Modified",
+                DateTimeFormatter.RFC_1123_DATE_TIME.format(lastModified(file).atOffset(ZoneOffset.UTC)));
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Content-Length", String.valueOf(length));
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, length > 0 ? length : -1);
+        try (InputStream in = Files.newInputStream(file); OutputStream out = exchange.getResponseBody()) {
+            long skipped = 0;
+            while (skipped < start) {
+                skipped += in.skip(start - skipped);
+            }
+            write(in, out, length);
+        }
+    }
+
+    /**
+     * Copies the given number of bytes, pausing as needed to stay within the bandwidth.
+     */
+    private void write(InputStream in, OutputStream out, long length) throws IOException, InterruptedException {
+        byte[] buffer = new byte[CHUNK_BYTES];
+        long started = System.nanoTime();
+        long written = 0;
+        while (written < length) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, length - written));
+            if (read < 0) {
+                break;
+            }
+            out.write(buffer, 0, read);
+            written += read;
+            if (bandwidthBytesPerSecond > 0) {
+                long due = written * 1000 / bandwidthBytesPerSecond;
+                long elapsed = (System.nanoTime() - started) / 1000000;
+                if (due > elapsed) {
+                    Thread.sleep(due - elapsed);
+                }
+            }
+        }
+    }
+
+    private void error(HttpExchange exchange, int status, String code, String message) throws IOException {
+        byte[] body = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?><Error><Code>" + code + "</Code><Message>" +
+                message + "</Message><RequestId>stand-in</RequestId></Error>").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Returns the MD5 of the file, which is what S3 uses as the ETag of objects uploaded in one part.
+     */
+    private String eTag(Path file) throws IOException {
+        String cacheKey = file + "@" + Files.getLastModifiedTime(file).toMillis() + "@" + Files.size(file);
+        String eTag = eTags.get(cacheKey);
+        if (eTag == null) {
+            eTag = com.google.common.io.Files.hash(file.toFile(), Hashing.md5()).toString();
+            eTags.put(cacheKey, eTag);
+        }
+        return eTag;
+    }
+
+    private static Instant lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toInstant();
+        } catch (IOException ex) {
+            return Instant.EPOCH;
+        }
+    }
+
+    private static String key(Path directory, Path file) {
+        return directory.relativize(file).toString().replace('\\', '/');
+    }
+
+    private static String encode(String value, boolean urlEncoded) throws UnsupportedEncodingException {
+        return urlEncoded ? URLEncoder.encode(value, "UTF-8") : value.replace("&", "&amp;").replace("<", "&lt;");
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return parameters;
+        }
+        for (String parameter : query.split("&")) {
+            String[] pair = parameter.split("=", 2);
+            parameters.put(URLDecoder.decode(pair[0], "UTF-8"), pair.length > 1 ? URLDecoder.decode(pair[1], "UTF-8") : "");
+        }
+        return parameters;
+    }
+}
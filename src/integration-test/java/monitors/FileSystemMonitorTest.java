@@ -8,8 +8,6 @@ import org.junit.Test;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.WatchEvent;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
@@ -29,39 +27,39 @@ public class FileSystemMonitorTest {
     @Test
     public void testSingleFileCreateMonitor() throws IOException, InterruptedException {
         new File("test").mkdir();
-        ScheduledExecutorService executorService = new ScheduledThreadPoolExecutor(1);
-        FileSystemMonitor monitor = new FileSystemMonitor(executorService, 10L, "test");
+        FileSystemMonitor monitor = new FileSystemMonitor("test");
+        monitor.start();
         monitor.onCreated((PluginMonitorEvent event)->{
             Object context = event.getPluginUrl();
             assertEquals("test file", context);
         });
         new File("test/test file").createNewFile();
-        executorService.awaitTermination(3, TimeUnit.SECONDS);
+        Thread.sleep(TimeUnit.SECONDS.toMillis(3));
         monitor.cancelPolling(false);
     }
 
     @Test
     public void testSingleFileNoCallback() throws IOException, InterruptedException {
         new File("test").mkdir();
-        ScheduledExecutorService executorService = new ScheduledThreadPoolExecutor(1);
-        FileSystemMonitor monitor = new FileSystemMonitor(executorService, 10L, "test");
+        FileSystemMonitor monitor = new FileSystemMonitor("test");
+        monitor.start();
         new File("test/test file").createNewFile();
-        executorService.awaitTermination(3, TimeUnit.SECONDS);
+        Thread.sleep(TimeUnit.SECONDS.toMillis(3));
         monitor.cancelPolling(false);
     }
 
     @Test
     public void testSingleFileDeleteMonitor() throws IOException, InterruptedException {
         new File("test").mkdir();
-        ScheduledExecutorService executorService = new ScheduledThreadPoolExecutor(1);
-        FileSystemMonitor monitor = new FileSystemMonitor(executorService, 10L, "test");
+        FileSystemMonitor monitor = new FileSystemMonitor("test");
+        monitor.start();
         monitor.onDeleted((PluginMonitorEvent event)->{
             assertEquals("test file", event.getPluginUrl());
         });
         File testFile = new File("test/test file");
         testFile.createNewFile();
         testFile.delete();
-        executorService.awaitTermination(3, TimeUnit.SECONDS);
+        Thread.sleep(TimeUnit.SECONDS.toMillis(3));
         monitor.cancelPolling(false);
     }
 
@@ -70,21 +68,21 @@ public class FileSystemMonitorTest {
         new File("test").mkdir();
         File testFile = new File("test/test file");
         testFile.createNewFile();
-        ScheduledExecutorService executorService = new ScheduledThreadPoolExecutor(1);
-        FileSystemMonitor monitor = new FileSystemMonitor(executorService, 10L, "test");
+        FileSystemMonitor monitor = new FileSystemMonitor("test");
+        monitor.start();
         monitor.onModified((PluginMonitorEvent event)->{
             Object context = event.getPluginUrl();
             assertEquals("test file", context);
         });
         testFile.setLastModified(System.currentTimeMillis());
-        executorService.awaitTermination(3, TimeUnit.SECONDS);
+        Thread.sleep(TimeUnit.SECONDS.toMillis(3));
         monitor.cancelPolling(false);
     }
 
     @Test
     public void testResumingPolling() throws IOException {
-        ScheduledExecutorService executorService = new ScheduledThreadPoolExecutor(1);
-        FileSystemMonitor monitor = new FileSystemMonitor(executorService, 10L, "test");
+        FileSystemMonitor monitor = new FileSystemMonitor("test");
+        monitor.start();
         monitor.cancelPolling(true);
         assertFalse(monitor.isPolling());
     }
@@ -0,0 +1,60 @@
+package io.github.thisisnozaku.charactercreator.config;
+
+import io.github.thisisnozaku.charactercreator.data.access.CachingFileAccessor;
+import io.github.thisisnozaku.charactercreator.data.access.CircuitBreakingFileAccessor;
+import io.github.thisisnozaku.charactercreator.data.access.FileAccessor;
+import io.github.thisisnozaku.charactercreator.data.access.ReplicatedFileAccessor;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Optional;
+
+/**
+ * Reads from the replicas of the file storage of the active profile when there are any, and wraps that in a circuit
+ * breaker when one is enabled and in a local disk cache when a cache directory is configured.
+ */
+@Configuration
+@ConditionalOnExpression("'${files.cache.directory:}' != '' or ${files.circuitBreaker.enabled:false} " +
+        "or '${amazon.s3.replicaBuckets:}' != ''")
+public class FileAccessConfig {
+    @Value("${files.cache.directory:}")
+    private String cacheDirectory;
+    @Value("${files.cache.maxBytes:1073741824}")
+    private long cacheMaxBytes;
+    @Value("${files.circuitBreaker.enabled:false}")
+    private boolean circuitBreakerEnabled;
+    @Value("${files.circuitBreaker.directory:${java.io.tmpdir}/last-known-good}")
+    private String circuitBreakerDirectory;
+    @Value("${files.circuitBreaker.maxBytes:1073741824}")
+    private long circuitBreakerMaxBytes;
+    @Value("${files.circuitBreaker.window:20}")
+    private int circuitBreakerWindow;
+    @Value("${files.circuitBreaker.failureRatio:0.5}")
+    private double circuitBreakerFailureRatio;
+    @Value("${files.circuitBreaker.slowCallMillis:2000}")
+    private long circuitBreakerSlowCallMillis;
+    @Value("${files.circuitBreaker.openMillis:30000}")
+    private long circuitBreakerOpenMillis;
+
+    @Bean
+    @Primary
+    public FileAccessor fileAccessor(@Qualifier("fileStorage") FileAccessor fileStorage,
+                                     Optional<ReplicatedFileAccessor> replicatedStorage) throws IOException {
+        FileAccessor fileAccessor = replicatedStorage.isPresent() ? replicatedStorage.get() : fileStorage;
+        if (circuitBreakerEnabled) {
+            fileAccessor = new CircuitBreakingFileAccessor(fileAccessor, Paths.get(circuitBreakerDirectory),
+                    circuitBreakerMaxBytes, circuitBreakerWindow, circuitBreakerFailureRatio,
+                    circuitBreakerSlowCallMillis, circuitBreakerOpenMillis);
+        }
+        if (!cacheDirectory.isEmpty()) {
+            fileAccessor = new CachingFileAccessor(fileAccessor, Paths.get(cacheDirectory), cacheMaxBytes);
+        }
+        return fileAccessor;
+    }
+}
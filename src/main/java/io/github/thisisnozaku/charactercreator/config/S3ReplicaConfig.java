@@ -0,0 +1,71 @@
+package io.github.thisisnozaku.charactercreator.config;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import io.github.thisisnozaku.charactercreator.data.access.AmazonS3Adapter;
+import io.github.thisisnozaku.charactercreator.data.access.ReplicatedFileAccessor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads plugins from replicas of the plugin bucket in other regions as well, when any are configured.
+ * <p>
+ * Replicas are listed in amazon.s3.replicaBuckets as bucket@region entries separated by commas, and are tried after
+ * the bucket of the application until their latency has been measured.
+ */
+@Configuration
+@Profile("aws")
+@ConditionalOnProperty("amazon.s3.replicaBuckets")
+public class S3ReplicaConfig {
+    @Value("${aws.region}")
+    private String region;
+    @Value("${amazon.s3.replicaBuckets}")
+    private String replicaBuckets;
+    @Value("${amazon.s3.replicas.hedgeMillis:500}")
+    private long hedgeMillis;
+    //Larger objects are downloaded as ranges before their content is returned, which hedging can't speed up.
+    @Value("${amazon.s3.rangedDownload.threshold:33554432}")
+    private long hedgeMaxBytes;
+    @Value("${amazon.s3.replicas.maxErrorRate:0.5}")
+    private double maxErrorRate;
+    @Value("${amazon.s3.replicas.probeMillis:60000}")
+    private long probeMillis;
+    //Adapters of the other buckets aren't beans of their own, so they are shut down along with this configuration.
+    private final List<AmazonS3Adapter> replicaAdapters = new ArrayList<>();
+
+    @Bean
+    public ReplicatedFileAccessor replicatedFileAccessor(AmazonS3Adapter primary, AmazonS3 s3) {
+        List<ReplicatedFileAccessor.Replica> replicas = new ArrayList<>();
+        replicas.add(replica(primary.getBucket(), s3, primary));
+        for (String entry : replicaBuckets.split(",")) {
+            if (entry.trim().isEmpty()) {
+                continue;
+            }
+            String[] tokens = entry.trim().split("@");
+            String bucket = tokens[0];
+            AmazonS3 client = AmazonS3ClientBuilder.standard()
+                    .withRegion(tokens.length > 1 ? tokens[1] : region)
+                    .build();
+            AmazonS3Adapter adapter = new AmazonS3Adapter(client, bucket);
+            replicaAdapters.add(adapter);
+            replicas.add(replica(bucket, client, adapter));
+        }
+        return new ReplicatedFileAccessor(replicas, hedgeMillis, hedgeMaxBytes, maxErrorRate, probeMillis);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        replicaAdapters.forEach(AmazonS3Adapter::shutdown);
+    }
+
+    private static ReplicatedFileAccessor.Replica replica(String bucket, AmazonS3 client, AmazonS3Adapter adapter) {
+        return new ReplicatedFileAccessor.Replica(bucket, adapter, client.getUrl(bucket, "").toExternalForm());
+    }
+}
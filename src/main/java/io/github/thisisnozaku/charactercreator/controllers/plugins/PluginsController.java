@@ -1,31 +1,55 @@
 package io.github.thisisnozaku.charactercreator.controllers.plugins;
 
+import com.google.common.io.ByteStreams;
+import io.github.thisisnozaku.charactercreator.data.access.AsyncFileAccessor;
 import io.github.thisisnozaku.charactercreator.plugins.Character;
 import io.github.thisisnozaku.charactercreator.plugins.GamePlugin;
 import io.github.thisisnozaku.charactercreator.plugins.PluginDescription;
 import io.github.thisisnozaku.charactercreator.plugins.PluginManager;
-import org.springframework.core.io.InputStreamResource;
+import io.github.thisisnozaku.charactercreator.plugins.PluginReadiness;
+import io.github.thisisnozaku.charactercreator.plugins.PluginResourceProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.inject.Inject;
+import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Collection;
+import java.util.Map;
 import java.util.Optional;
 
 @RestController
 @RequestMapping("/plugins")
 public class PluginsController {
+    private final Logger logger = LoggerFactory.getLogger(PluginsController.class);
     private PluginManager<? extends GamePlugin<? extends Character>> pluginManager;
+    private PluginReadiness pluginReadiness;
+    private PluginResourceProvider pluginResources;
+    private AsyncFileAccessor fileAccess;
 
     @Inject
-    public PluginsController(PluginManager<? extends GamePlugin<? extends Character>> pluginManager) {
+    public PluginsController(PluginManager<? extends GamePlugin<? extends Character>> pluginManager, PluginReadiness pluginReadiness,
+                             PluginResourceProvider pluginResources, AsyncFileAccessor fileAccess) {
         this.pluginManager = pluginManager;
+        this.pluginReadiness = pluginReadiness;
+        this.pluginResources = pluginResources;
+        this.fileAccess = fileAccess;
     }
 
     @RequestMapping("")
@@ -34,18 +58,78 @@ public class PluginsController {
         return pluginManager.getAllPluginDescriptions();
     }
 
+    /**
+     * Reports the load state of every plugin archive found at startup.
+     */
+    @RequestMapping("/status")
+    public ResponseEntity<Map<String, PluginReadiness.State>> getPluginStates() {
+        return ResponseEntity.status(pluginReadiness.isReady() ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE)
+                .body(pluginReadiness.getPluginStates());
+    }
+
+    /**
+     * Reports the hit, miss and eviction counts of the plugin resource cache.
+     */
+    @RequestMapping("/cache")
+    public Map<String, Long> getResourceCacheStatistics() {
+        return pluginResources.getCacheStatistics();
+    }
+
+    /**
+     * Streams the archive of a plugin. The archive is opened off the request thread, and archives on the local file
+     * system are sent straight from the file channel. An archive opened after the request has timed out or failed is
+     * closed again, since nothing will stream it.
+     */
     @RequestMapping(value = "/{author}/{system}/{version}/", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
-    public ResponseEntity<InputStreamResource> getPluginPackage(@PathVariable("author") String author, @PathVariable("system") String system, @PathVariable("version") String version) {
+    public DeferredResult<ResponseEntity<StreamingResponseBody>> getPluginPackage(@PathVariable("author") String author, @PathVariable("system") String system, @PathVariable("version") String version) {
+        DeferredResult<ResponseEntity<StreamingResponseBody>> result = new DeferredResult<>();
         PluginDescription pluginDescription = new PluginDescription(author, system, version);
-        Optional<InputStream> contentStream = pluginManager.getPluginArchive(pluginDescription)
-                .map(archiveUri -> {
-                    try {
-                        return archiveUri.toURL().openStream();
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
+        Optional<URI> archive = pluginManager.getPluginArchive(pluginDescription);
+        if (!archive.isPresent()) {
+            result.setResult(ResponseEntity.notFound().build());
+            return result;
+        }
+        URL archiveUrl;
+        try {
+            archiveUrl = archive.get().toURL();
+        } catch (MalformedURLException e) {
+            throw new RuntimeException(e);
+        }
+        fileAccess.getFileInformation(archiveUrl)
+                .thenCompose(fileAccess::getContentChannel)
+                .whenComplete((content, ex) -> {
+                    if (ex != null) {
+                        result.setErrorResult(ex);
+                    } else if (!result.setResult(content.map(this::streamArchive)
+                            .orElse(ResponseEntity.notFound().build()))) {
+                        content.ifPresent(this::close);
                     }
                 });
-        return contentStream
-                .map(cs -> ResponseEntity.ok(new InputStreamResource(cs))).orElse(ResponseEntity.notFound().build());
+        return result;
+    }
+
+    private ResponseEntity<StreamingResponseBody> streamArchive(ReadableByteChannel channel) {
+        return ResponseEntity.ok((StreamingResponseBody) out -> {
+            try (ReadableByteChannel in = channel) {
+                WritableByteChannel target = Channels.newChannel(out);
+                if (in instanceof FileChannel) {
+                    FileChannel file = (FileChannel) in;
+                    for (long position = 0; position < file.size(); ) {
+                        position += file.transferTo(position, file.size() - position, target);
+                    }
+                } else {
+                    ByteStreams.copy(in, target);
+                }
+                out.flush();
+            }
+        });
+    }
+
+    private void close(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ex) {
+            logger.warn("Unable to close an archive nobody streamed: {}", ex.getLocalizedMessage());
+        }
     }
 }
@@ -1,38 +1,87 @@
 package io.github.thisisnozaku.charactercreator.data.access;
 
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Paths;
 import java.sql.Date;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Implementation of FileAccessor backed by an Amazon S3 bucket.
  * Created by Damien on 9/11/2016.
  */
 @Service
+@Qualifier("fileStorage")
 @Profile("aws")
 public class AmazonS3Adapter implements FileAccessor {
     private static final Logger logger = LoggerFactory.getLogger(AmazonS3Adapter.class);
     private String bucket;
     @Inject
     private AmazonS3 s3;
+    //Objects larger than the threshold are downloaded as parallel byte ranges of the part size.
+    @SuppressWarnings({"CanBeFinal", "unused"})
+    @Value("${amazon.s3.rangedDownload.threshold:33554432}")
+    private long rangedDownloadThreshold = 33554432;
+    @SuppressWarnings({"CanBeFinal", "unused"})
+    @Value("${amazon.s3.rangedDownload.partBytes:8388608}")
+    private long rangedDownloadPartBytes = 8388608;
+    @SuppressWarnings({"CanBeFinal", "unused"})
+    @Value("${amazon.s3.rangedDownload.threads:4}")
+    private int rangedDownloadThreads = 4;
+    @SuppressWarnings({"CanBeFinal", "unused"})
+    @Value("${amazon.s3.rangedDownload.attempts:3}")
+    private int rangedDownloadAttempts = 3;
+    private ExecutorService rangedDownloadPool;
+    //Listings request their next page on one of these threads while the current page is consumed.
+    @SuppressWarnings({"CanBeFinal", "unused"})
+    @Value("${amazon.s3.listing.prefetchThreads:2}")
+    private int listingPrefetchThreads = 2;
+    private ExecutorService listingPrefetchPool;
+    //Presigned URLs are valid for 30 minutes, and are reused until 5 minutes before they expire.
+    private static final long PRESIGNED_URL_VALIDITY_MINUTES = 30;
+    private static final long PRESIGNED_URL_RENEWAL_MARGIN_MINUTES = 5;
+    private final LoadingCache<String, URL> presignedUrls = CacheBuilder.newBuilder()
+            .expireAfterWrite(PRESIGNED_URL_VALIDITY_MINUTES - PRESIGNED_URL_RENEWAL_MARGIN_MINUTES, TimeUnit.MINUTES)
+            .maximumSize(10000)
+            .build(CacheLoader.from(objectKey -> s3.generatePresignedUrl(bucket, objectKey,
+                    Date.from(Instant.now().plus(PRESIGNED_URL_VALIDITY_MINUTES, ChronoUnit.MINUTES)))));
 
-    //FIXME: Allows only a single bucket to be used in the whole application. Make into a list?
+    //Reads a single bucket; replicas of it in other buckets are combined by ReplicatedFileAccessor.
     public AmazonS3Adapter(AmazonS3 s3Client, @Value("${amazon.s3.bucket}")String s3Bucket) {
         s3 = s3Client;
         bucket = s3Bucket;
@@ -48,17 +97,26 @@ public class AmazonS3Adapter implements FileAccessor {
         return getFileInformation(path.toExternalForm());
     }
 
+    /**
+     * Returns the object key of the object at the given location.
+     */
     @Override
-    public List<FileInformation> getAllFileInformation(String path) {
-        List<FileInformation> objects = new LinkedList<>();
-        s3.listObjects(bucket, path).getObjectSummaries().forEach(s3ObjectSummary -> {
-            //Ignore the root of the pseudo-directory we're iterating through.
-            if (!Paths.get(s3ObjectSummary.getKey()).equals(Paths.get(path))) {
-                GetObjectMetadataRequest metadataRequest = new GetObjectMetadataRequest(bucket, s3ObjectSummary.getKey());
-                objects.add(new FileInformation(s3.getUrl(bucket, s3ObjectSummary.getKey())));
-            }
-        });
-        return objects;
+    public String getPath(String location) {
+        String root = s3.getUrl(bucket, "").toExternalForm();
+        return location.startsWith(root) ? location.substring(root.length()) : normalizeS3Url(location);
+    }
+
+    @Override
+    public Stream<FileInformation> streamFileInformation(String path) {
+        PrefetchingListing listing = new PrefetchingListing(s3.listObjects(new ListObjectsRequest()
+                .withBucketName(bucket)
+                .withPrefix(path)));
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(listing, Spliterator.ORDERED | Spliterator.NONNULL),
+                false)
+                //Ignore the root of the pseudo-directory we're iterating through.
+                .filter(s3ObjectSummary -> !Paths.get(s3ObjectSummary.getKey()).equals(Paths.get(path)))
+                .<FileInformation>map(S3BackedFileInformation::new)
+                .onClose(listing::close);
     }
 
     @Override
@@ -71,14 +129,57 @@ public class AmazonS3Adapter implements FileAccessor {
         }
         S3BackedFileInformation s3FileInformation = (S3BackedFileInformation) file;
         try {
+            Optional<ReadableByteChannel> ranges = rangedContent(s3FileInformation);
+            if (ranges.isPresent()) {
+                return Optional.of(Channels.newInputStream(ranges.get()));
+            }
             return Optional.ofNullable(s3FileInformation.getFileUrl().openStream());
         } catch (IOException ex) {
             throw new IllegalStateException(ex);
         }
     }
 
+    /**
+     * Returns a channel over the HTTP body of the object, or over the ranges being downloaded for objects large enough
+     * to be downloaded as ranges.
+     */
+    @Override
+    public <T extends FileInformation> Optional<ReadableByteChannel> getContentChannel(T file) throws IOException {
+        if (file == null) {
+            return Optional.empty();
+        }
+        if (!S3BackedFileInformation.class.isInstance(file)) {
+            throw new IllegalArgumentException("FileInformation is not for an S3 object.");
+        }
+        S3BackedFileInformation s3FileInformation = (S3BackedFileInformation) file;
+        Optional<ReadableByteChannel> ranges = rangedContent(s3FileInformation);
+        if (ranges.isPresent()) {
+            return ranges;
+        }
+        S3Object object = s3.getObject(bucket, s3FileInformation.getObjectKey());
+        return Optional.of(Channels.newChannel(object.getObjectContent()));
+    }
+
+    private Optional<ReadableByteChannel> rangedContent(S3BackedFileInformation file) throws IOException {
+        Optional<Long> size = file.getSize();
+        Optional<String> eTag = file.getContentHash();
+        if (!size.isPresent() || !eTag.isPresent() || size.get() <= rangedDownloadThreshold) {
+            return Optional.empty();
+        }
+        return Optional.of(new RangedDownload(s3, rangedDownloadExecutor(), rangedDownloadPartBytes,
+                rangedDownloadAttempts).stream(bucket, file.getObjectKey(), size.get(), eTag.get()));
+    }
+
+    /**
+     * Information about an S3 object. The size, ETag and modification time are taken from the listing the object was
+     * found in, or otherwise fetched with a single metadata request the first time one of them is needed.
+     */
     public class S3BackedFileInformation extends FileInformation {
         private final String objectKey;
+        private boolean metadataLoaded;
+        private Long size;
+        private String eTag;
+        private Instant lastModified;
 
         @Override
         public String toString() {
@@ -94,19 +195,65 @@ public class AmazonS3Adapter implements FileAccessor {
             this.objectKey = resourcePath;
         }
 
+        public S3BackedFileInformation(S3ObjectSummary summary) {
+            this.objectKey = summary.getKey();
+            this.size = summary.getSize();
+            this.eTag = summary.getETag();
+            this.lastModified = summary.getLastModified() != null ? summary.getLastModified().toInstant() : null;
+            this.metadataLoaded = true;
+        }
+
         public String getObjectKey() {
             return objectKey;
         }
 
+        /**
+         * Returns a presigned URL for the object, reusing a previously signed one while it is still valid.
+         */
         @Override
         public URL getFileUrl() {
-            return s3.generatePresignedUrl(bucket, objectKey, Date.from(Instant.now().plus(30, ChronoUnit.MINUTES)));
+            return presignedUrls.getUnchecked(objectKey);
+        }
+
+        /**
+         * Returns the unsigned URL of the object, which is built from the object key without signing anything.
+         */
+        @Override
+        public String getLocation() {
+            return s3.getUrl(bucket, objectKey).toExternalForm();
         }
 
         @Override
         public Optional<Instant> getLastModifiedTimestamp() {
+            loadMetadata();
+            return Optional.ofNullable(lastModified);
+        }
+
+        @Override
+        public Optional<Long> getSize() {
+            loadMetadata();
+            return Optional.ofNullable(size);
+        }
+
+        /**
+         * Returns the ETag of the object, which S3 changes whenever the content of the object changes.
+         */
+        @Override
+        public Optional<String> getContentHash() {
+            loadMetadata();
+            return Optional.ofNullable(eTag);
+        }
+
+        private synchronized void loadMetadata() {
+            if (metadataLoaded) {
+                return;
+            }
             try {
-                return Optional.ofNullable(s3.getObject(bucket, objectKey).getObjectMetadata().getLastModified().toInstant());
+                ObjectMetadata metadata = s3.getObjectMetadata(bucket, objectKey);
+                size = metadata.getContentLength();
+                eTag = metadata.getETag();
+                lastModified = metadata.getLastModified() != null ? metadata.getLastModified().toInstant() : null;
+                metadataLoaded = true;
             } catch (Exception ex) {
                 logger.error("Something went wrong trying to get S3 info for bucket: [{}], object: [{}]", bucket, this.objectKey);
                 throw ex;
@@ -114,6 +261,78 @@ public class AmazonS3Adapter implements FileAccessor {
         }
     }
 
+    /**
+     * Iterates over every object of a listing, following it across pages. The next page is requested in the background
+     * while the current one is being consumed, and at most two pages are held at once.
+     */
+    private class PrefetchingListing implements Iterator<S3ObjectSummary> {
+        private Iterator<S3ObjectSummary> summaries;
+        private CompletableFuture<ObjectListing> nextPage;
+
+        private PrefetchingListing(ObjectListing firstPage) {
+            setPage(firstPage);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!summaries.hasNext() && nextPage != null) {
+                try {
+                    setPage(nextPage.join());
+                } catch (CompletionException ex) {
+                    throw ex.getCause() instanceof RuntimeException ? (RuntimeException) ex.getCause() : ex;
+                }
+            }
+            return summaries.hasNext();
+        }
+
+        @Override
+        public S3ObjectSummary next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return summaries.next();
+        }
+
+        private void setPage(ObjectListing listing) {
+            summaries = listing.getObjectSummaries().iterator();
+            nextPage = listing.isTruncated() ?
+                    CompletableFuture.supplyAsync(() -> s3.listNextBatchOfObjects(listing), listingPrefetchExecutor()) :
+                    null;
+        }
+
+        private void close() {
+            if (nextPage != null) {
+                nextPage.cancel(false);
+            }
+        }
+    }
+
+    private synchronized ExecutorService rangedDownloadExecutor() {
+        if (rangedDownloadPool == null) {
+            rangedDownloadPool = Executors.newFixedThreadPool(rangedDownloadThreads,
+                    new ThreadFactoryBuilder().setNameFormat("s3-ranged-download-%d").setDaemon(true).build());
+        }
+        return rangedDownloadPool;
+    }
+
+    private synchronized ExecutorService listingPrefetchExecutor() {
+        if (listingPrefetchPool == null) {
+            listingPrefetchPool = Executors.newFixedThreadPool(listingPrefetchThreads,
+                    new ThreadFactoryBuilder().setNameFormat("s3-listing-prefetch-%d").setDaemon(true).build());
+        }
+        return listingPrefetchPool;
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (listingPrefetchPool != null) {
+            listingPrefetchPool.shutdownNow();
+        }
+        if (rangedDownloadPool != null) {
+            rangedDownloadPool.shutdownNow();
+        }
+    }
+
     public String getBucket() {
         return bucket;
     }
@@ -0,0 +1,138 @@
+package io.github.thisisnozaku.charactercreator.data.access;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Asynchronous access to the FileAccessor of the application.
+ * <p>
+ * Every call runs on a dedicated pool of I/O threads, whose size limits how many calls are in progress at once, and
+ * fails with a {@link TimeoutException} if it doesn't finish within the timeout. Callers such as monitor threads and
+ * request threads can hand their I/O off instead of blocking on it.
+ */
+@Service
+public class AsyncFileAccessor {
+    private static final Logger logger = LoggerFactory.getLogger(AsyncFileAccessor.class);
+    private final FileAccessor fileAccess;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService timeouts;
+    private final long timeoutMillis;
+
+    @Inject
+    public AsyncFileAccessor(FileAccessor fileAccess, @Value("${files.async.threads:8}") int threads,
+                             @Value("${files.async.timeout:30000}") long timeoutMillis) {
+        this.fileAccess = fileAccess;
+        this.executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("file-access-%d").setDaemon(true).build());
+        this.timeouts = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("file-access-timeout").setDaemon(true).build());
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * @see FileAccessor#getFileInformation(String)
+     */
+    public CompletableFuture<FileInformation> getFileInformation(String path) {
+        return submit(() -> fileAccess.getFileInformation(path), "Getting information for " + path, null);
+    }
+
+    /**
+     * @see FileAccessor#getFileInformation(URL)
+     */
+    public CompletableFuture<FileInformation> getFileInformation(URL path) {
+        return submit(() -> fileAccess.getFileInformation(path), "Getting information for " + path, null);
+    }
+
+    /**
+     * @see FileAccessor#getAllFileInformation(String)
+     */
+    public CompletableFuture<List<FileInformation>> getAllFileInformation(String path) {
+        return submit(() -> fileAccess.getAllFileInformation(path), "Listing " + path, null);
+    }
+
+    /**
+     * Opens the content of the given file. A stream opened after the call has timed out is closed.
+     *
+     * @see FileAccessor#getContent(FileInformation)
+     */
+    public <T extends FileInformation> CompletableFuture<Optional<InputStream>> getContent(T file) {
+        return submit(() -> fileAccess.getContent(file), "Reading " + file, content -> content.ifPresent(this::close));
+    }
+
+    /**
+     * Opens a channel over the content of the given file. A channel opened after the call has timed out is closed.
+     *
+     * @see FileAccessor#getContentChannel(FileInformation)
+     */
+    public <T extends FileInformation> CompletableFuture<Optional<ReadableByteChannel>> getContentChannel(T file) {
+        return submit(() -> fileAccess.getContentChannel(file), "Reading " + file,
+                content -> content.ifPresent(this::close));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        timeouts.shutdownNow();
+    }
+
+    private <T> CompletableFuture<T> submit(Callable<T> call, String description, Discarder<T> discarder) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> task = executor.submit(() -> {
+            try {
+                T value = call.call();
+                if (!result.complete(value) && discarder != null) {
+                    discarder.discard(value);
+                }
+            } catch (Exception ex) {
+                result.completeExceptionally(ex);
+            }
+        });
+        ScheduledFuture<?> timeout = timeouts.schedule(() -> {
+            if (result.completeExceptionally(new TimeoutException(String.format("%s took longer than %d ms",
+                    description, timeoutMillis)))) {
+                logger.warn("{} timed out", description);
+                task.cancel(true);
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        result.whenComplete((value, ex) -> timeout.cancel(false));
+        return result;
+    }
+
+    private void close(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ex) {
+            logger.warn("Unable to close abandoned content: {}", ex.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Releases a result which arrived after its call timed out.
+     */
+    @FunctionalInterface
+    private interface Discarder<T> {
+        void discard(T value);
+    }
+}
@@ -0,0 +1,243 @@
+package io.github.thisisnozaku.charactercreator.data.access;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * FileAccessor which keeps a copy of every file it reads in a local directory, so reading a file again is served from
+ * disk instead of the wrapped FileAccessor.
+ * <p>
+ * Copies are keyed by the location and content hash of the file, so a changed file is never served from a stale copy.
+ * Files without a content hash are always read from the wrapped FileAccessor. The directory is bounded in size, with
+ * the least recently read copies removed first, and is reused across restarts.
+ */
+public class CachingFileAccessor implements FileAccessor {
+    private static final Logger logger = LoggerFactory.getLogger(CachingFileAccessor.class);
+    private static final String TEMP_SUFFIX = ".tmp";
+    private final FileAccessor delegate;
+    private final Path directory;
+    private final long maximumBytes;
+    //Sizes of the cached copies, in least recently used order.
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public CachingFileAccessor(FileAccessor delegate, Path directory, long maximumBytes) throws IOException {
+        this.delegate = delegate;
+        this.directory = Files.createDirectories(directory);
+        this.maximumBytes = maximumBytes;
+        loadEntries();
+    }
+
+    @Override
+    public FileInformation getFileInformation(String path) throws MalformedURLException, URISyntaxException {
+        return delegate.getFileInformation(path);
+    }
+
+    @Override
+    public FileInformation getFileInformation(URL path) throws URISyntaxException {
+        return delegate.getFileInformation(path);
+    }
+
+    @Override
+    public String getPath(String location) {
+        return delegate.getPath(location);
+    }
+
+    @Override
+    public Stream<FileInformation> streamFileInformation(String path) {
+        return delegate.streamFileInformation(path);
+    }
+
+    @Override
+    public <T extends FileInformation> Optional<InputStream> getContent(T file) throws IOException {
+        Optional<Path> copy = copyOf(file);
+        if (copy.isPresent()) {
+            try {
+                return Optional.of(Files.newInputStream(copy.get()));
+            } catch (NoSuchFileException ex) {
+                logger.debug("Cached copy {} was evicted before it could be read", copy.get());
+            }
+        }
+        return delegate.getContent(file);
+    }
+
+    @Override
+    public <T extends FileInformation> Optional<ReadableByteChannel> getContentChannel(T file) throws IOException {
+        Optional<Path> copy = copyOf(file);
+        if (copy.isPresent()) {
+            try {
+                return Optional.of(FileChannel.open(copy.get(), StandardOpenOption.READ));
+            } catch (NoSuchFileException ex) {
+                logger.debug("Cached copy {} was evicted before it could be read", copy.get());
+            }
+        }
+        return delegate.getContentChannel(file);
+    }
+
+    @Override
+    public <T extends FileInformation> Optional<ByteBuffer> getMappedContent(T file) throws IOException {
+        Optional<Path> copy = copyOf(file);
+        if (copy.isPresent()) {
+            try (FileChannel channel = FileChannel.open(copy.get(), StandardOpenOption.READ)) {
+                if (channel.size() <= Integer.MAX_VALUE) {
+                    return Optional.of(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+                }
+            } catch (NoSuchFileException ex) {
+                logger.debug("Cached copy {} was evicted before it could be read", copy.get());
+            }
+        }
+        return delegate.getMappedContent(file);
+    }
+
+    /**
+     * Returns the local copy of the given file, copying it from the wrapped FileAccessor first if there is none.
+     *
+     * @param file the file
+     * @return the copy, or empty if the file can't be cached
+     */
+    private Optional<Path> copyOf(FileInformation file) throws IOException {
+        if (file == null) {
+            return Optional.empty();
+        }
+        Optional<String> hash = file.getContentHash();
+        Optional<Long> size = file.getSize();
+        if (!hash.isPresent() || (size.isPresent() && size.get() > maximumBytes)) {
+            return Optional.empty();
+        }
+        String name = entryName(file.getLocation(), hash.get());
+        Path copy = directory.resolve(name);
+        if (touch(name)) {
+            try {
+                Files.setLastModifiedTime(copy, FileTime.fromMillis(System.currentTimeMillis()));
+                hits.incrementAndGet();
+                return Optional.of(copy);
+            } catch (NoSuchFileException ex) {
+                logger.debug("Cached copy {} was evicted while being read", copy);
+            }
+        }
+        misses.incrementAndGet();
+        Optional<InputStream> content = delegate.getContent(file);
+        if (!content.isPresent()) {
+            return Optional.empty();
+        }
+        Path temp = Files.createTempFile(directory, name, TEMP_SUFFIX);
+        try (InputStream in = content.get()) {
+            long bytes = Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp, copy, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            added(name, bytes);
+            return Optional.of(copy);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Returns the hit, miss and eviction counts of the cache along with its current size.
+     *
+     * @return the cache statistics
+     */
+    public Map<String, Long> getStatistics() {
+        synchronized (entries) {
+            return ImmutableMap.of("hits", hits.get(),
+                    "misses", misses.get(),
+                    "evictions", evictions.get(),
+                    "entries", (long) entries.size(),
+                    "bytes", totalBytes);
+        }
+    }
+
+    private static String entryName(String location, String contentHash) {
+        return Hashing.sha256().hashString(location + "\n" + contentHash, StandardCharsets.UTF_8).toString();
+    }
+
+    /**
+     * Marks the given copy as the most recently used, returning if there is such a copy.
+     */
+    private boolean touch(String name) {
+        synchronized (entries) {
+            return entries.get(name) != null;
+        }
+    }
+
+    private void added(String name, long bytes) {
+        synchronized (entries) {
+            Long previous = entries.put(name, bytes);
+            totalBytes += bytes - (previous != null ? previous : 0);
+            Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+            while (totalBytes > maximumBytes && eldest.hasNext()) {
+                Map.Entry<String, Long> entry = eldest.next();
+                if (entry.getKey().equals(name)) {
+                    continue;
+                }
+                try {
+                    Files.deleteIfExists(directory.resolve(entry.getKey()));
+                } catch (IOException ex) {
+                    logger.warn("Unable to evict cached file {}: {}", entry.getKey(), ex.getLocalizedMessage());
+                    continue;
+                }
+                totalBytes -= entry.getValue();
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Picks up the copies left by a previous run, oldest first, and removes any partially written ones.
+     */
+    private void loadEntries() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            files.sorted(Comparator.comparing(CachingFileAccessor::lastModified)).forEach(file -> {
+                String name = file.getFileName().toString();
+                try {
+                    if (name.endsWith(TEMP_SUFFIX)) {
+                        Files.delete(file);
+                    } else {
+                        added(name, Files.size(file));
+                    }
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException ex) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
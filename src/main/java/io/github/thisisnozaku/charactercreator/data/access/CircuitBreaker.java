@@ -0,0 +1,65 @@
+package io.github.thisisnozaku.charactercreator.data.access;
+
+/**
+ * Tracks the outcome of the most recent calls to a remote service and opens once too many of them failed or were too
+ * slow. An open breaker stays open until it is explicitly closed again, typically once a probe call has succeeded.
+ */
+class CircuitBreaker {
+    private final boolean[] outcomes;
+    private final double failureRatio;
+    private final long slowCallMillis;
+    private int calls;
+    private int next;
+    private int failures;
+    private boolean open;
+
+    /**
+     * @param window         the number of recent calls to consider
+     * @param failureRatio   the share of failed or slow calls among them at which the breaker opens
+     * @param slowCallMillis calls taking longer than this count as failed
+     */
+    CircuitBreaker(int window, double failureRatio, long slowCallMillis) {
+        this.outcomes = new boolean[window];
+        this.failureRatio = failureRatio;
+        this.slowCallMillis = slowCallMillis;
+    }
+
+    synchronized boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Records the outcome of a call.
+     *
+     * @param failed        whether the call failed
+     * @param elapsedMillis how long the call took
+     * @return true if this call opened the breaker
+     */
+    synchronized boolean record(boolean failed, long elapsedMillis) {
+        boolean failure = failed || elapsedMillis > slowCallMillis;
+        if (calls == outcomes.length && outcomes[next]) {
+            failures--;
+        }
+        outcomes[next] = failure;
+        next = (next + 1) % outcomes.length;
+        calls = Math.min(calls + 1, outcomes.length);
+        if (failure) {
+            failures++;
+        }
+        if (!open && calls == outcomes.length && failures >= failureRatio * outcomes.length) {
+            open = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Closes the breaker and forgets the calls recorded so far.
+     */
+    synchronized void close() {
+        open = false;
+        calls = 0;
+        next = 0;
+        failures = 0;
+    }
+}
@@ -0,0 +1,608 @@
+package io.github.thisisnozaku.charactercreator.data.access;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PreDestroy;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * FileAccessor which guards a remote FileAccessor, such as the S3 adapter, with a circuit breaker.
+ * <p>
+ * Every call to the wrapped FileAccessor is timed. Once too many recent calls failed or were slow the breaker opens,
+ * and until it closes again listings, metadata and content are served from the last known good copy: listings and
+ * metadata from memory, content from a copy on disk made the last time the file was read to the end. The copy is
+ * written while the content is streamed to the caller, so reads aren't held up by it. A file whose content hash
+ * still matches its copy is read from the copy without calling the wrapped FileAccessor. Content reads are only timed
+ * until the response starts, so a large file isn't mistaken for a slow call. While open, a background task probes the
+ * wrapped FileAccessor by listing every known directory and looking up every file requested by path again, closing
+ * the breaker once that succeeds. A call which fails while there is no known good copy to fall back on fails as
+ * before.
+ * <p>
+ * The copies on disk are bounded in size, with the least recently read ones removed first.
+ */
+public class CircuitBreakingFileAccessor implements FileAccessor {
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreakingFileAccessor.class);
+    private static final String TEMP_SUFFIX = ".tmp";
+    private final FileAccessor delegate;
+    private final CircuitBreaker breaker;
+    private final Path directory;
+    private final long maximumBytes;
+    private final long openMillis;
+    private final ScheduledExecutorService revalidator;
+    //Last known good metadata, by location.
+    private final ConcurrentMap<String, KnownFile> knownFiles = new ConcurrentHashMap<>();
+    //Children found by the last complete listing, by listed path.
+    private final ConcurrentMap<String, List<FileInformation>> knownListings = new ConcurrentHashMap<>();
+    //Content hashes of the known good copies on disk, by copy name.
+    private final ConcurrentMap<String, String> copiedHashes = new ConcurrentHashMap<>();
+    //Sizes of the known good copies on disk, in least recently used order.
+    private final LinkedHashMap<String, Long> copies = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    /**
+     * @param delegate       the FileAccessor to guard
+     * @param directory      the directory to keep the last known good content in
+     * @param maximumBytes   the total size of the content kept in the directory
+     * @param window         the number of recent calls the breaker considers
+     * @param failureRatio   the share of failed or slow calls among them at which the breaker opens
+     * @param slowCallMillis calls taking longer than this count as failed
+     * @param openMillis     how long the breaker stays open before the wrapped FileAccessor is probed again
+     */
+    public CircuitBreakingFileAccessor(FileAccessor delegate, Path directory, long maximumBytes, int window,
+                                       double failureRatio, long slowCallMillis, long openMillis) throws IOException {
+        this.delegate = delegate;
+        this.directory = Files.createDirectories(directory);
+        this.maximumBytes = maximumBytes;
+        this.breaker = new CircuitBreaker(window, failureRatio, slowCallMillis);
+        this.openMillis = openMillis;
+        this.revalidator = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("file-access-revalidator").setDaemon(true).build());
+        loadCopies();
+    }
+
+    @Override
+    public FileInformation getFileInformation(String path) throws MalformedURLException, URISyntaxException {
+        return new GuardedFileInformation(delegate.getFileInformation(path), path);
+    }
+
+    @Override
+    public FileInformation getFileInformation(URL path) throws URISyntaxException {
+        return new GuardedFileInformation(delegate.getFileInformation(path), path.toExternalForm());
+    }
+
+    @Override
+    public String getPath(String location) {
+        return delegate.getPath(location);
+    }
+
+    /**
+     * Streams the children of the given directory. While the breaker is open, or if the listing can't be started,
+     * the children found by the last listing which was read to the end are streamed instead.
+     */
+    @Override
+    public Stream<FileInformation> streamFileInformation(String path) {
+        if (breaker.isOpen() && knownListings.containsKey(path)) {
+            return lastKnownListing(path);
+        }
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        Stream<FileInformation> listing;
+        try {
+            listing = delegate.streamFileInformation(path);
+        } catch (RuntimeException ex) {
+            failed(stopwatch, ex);
+            if (knownListings.containsKey(path)) {
+                logger.warn("Listing {} failed, using the last known listing: {}", path, ex.getLocalizedMessage());
+                return lastKnownListing(path);
+            }
+            throw ex;
+        }
+        succeeded(stopwatch);
+        Iterator<FileInformation> children = listing.iterator();
+        List<FileInformation> listed = new ArrayList<>();
+        AtomicBoolean complete = new AtomicBoolean();
+        Iterator<FileInformation> guarded = new Iterator<FileInformation>() {
+            @Override
+            public boolean hasNext() {
+                Stopwatch page = Stopwatch.createStarted();
+                try {
+                    boolean hasNext = children.hasNext();
+                    complete.set(!hasNext);
+                    return hasNext;
+                } catch (RuntimeException ex) {
+                    failed(page, ex);
+                    throw ex;
+                }
+            }
+
+            @Override
+            public FileInformation next() {
+                FileInformation child = children.next();
+                listed.add(child);
+                return new GuardedFileInformation(child);
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(guarded, Spliterator.ORDERED | Spliterator.NONNULL),
+                false)
+                .onClose(() -> {
+                    listing.close();
+                    //Only a listing read to the end can stand in for a later one.
+                    if (complete.get()) {
+                        knownListings.put(path, listed);
+                    }
+                });
+    }
+
+    @Override
+    public <T extends FileInformation> Optional<InputStream> getContent(T file) throws IOException {
+        return guardedContent(file);
+    }
+
+    @Override
+    public <T extends FileInformation> Optional<ReadableByteChannel> getContentChannel(T file) throws IOException {
+        return guardedContent(file).map(Channels::newChannel);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        revalidator.shutdownNow();
+    }
+
+    /**
+     * Reads the given file through the wrapped FileAccessor, copying it to disk as it is read, or reads the known good
+     * copy if the breaker is open, the copy is still current or the read can't be started.
+     */
+    private Optional<InputStream> guardedContent(FileInformation file) throws IOException {
+        String location = file.getLocation();
+        String name = Hashing.sha256().hashString(location, StandardCharsets.UTF_8).toString();
+        Path copy = directory.resolve(name);
+        if (breaker.isOpen() && used(name)) {
+            return Optional.of(Files.newInputStream(copy));
+        }
+        Optional<String> hash = file.getContentHash();
+        if (hash.isPresent() && hash.get().equals(copiedHashes.get(name)) && used(name)) {
+            return Optional.of(Files.newInputStream(copy));
+        }
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        Optional<InputStream> content;
+        try {
+            content = delegate.getContent(unwrap(file));
+        } catch (IOException | RuntimeException ex) {
+            failed(stopwatch, ex);
+            if (used(name)) {
+                logger.warn("Reading {} failed, using the last known good copy: {}", location, ex.getLocalizedMessage());
+                return Optional.of(Files.newInputStream(copy));
+            }
+            throw ex;
+        }
+        stopwatch.stop();
+        if (!content.isPresent()) {
+            succeeded(stopwatch);
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(new CopyingInputStream(content.get(), name, hash, stopwatch));
+        } catch (IOException ex) {
+            logger.warn("Unable to copy {}, reading it without a copy: {}", location, ex.getLocalizedMessage());
+            succeeded(stopwatch);
+            return content;
+        }
+    }
+
+    /**
+     * Returns information the wrapped FileAccessor can read content for.
+     */
+    private static FileInformation unwrap(FileInformation file) {
+        return file instanceof GuardedFileInformation ? ((GuardedFileInformation) file).original : file;
+    }
+
+    private Stream<FileInformation> lastKnownListing(String path) {
+        return knownListings.get(path).stream().map(GuardedFileInformation::new);
+    }
+
+    /**
+     * Marks the given copy as the most recently used, returning if there is such a copy.
+     */
+    private boolean used(String name) {
+        synchronized (copies) {
+            return copies.get(name) != null && Files.exists(directory.resolve(name));
+        }
+    }
+
+    private void added(String name, long bytes) {
+        synchronized (copies) {
+            Long previous = copies.put(name, bytes);
+            totalBytes += bytes - (previous != null ? previous : 0);
+            Iterator<Map.Entry<String, Long>> eldest = copies.entrySet().iterator();
+            while (totalBytes > maximumBytes && eldest.hasNext()) {
+                Map.Entry<String, Long> entry = eldest.next();
+                if (entry.getKey().equals(name)) {
+                    continue;
+                }
+                try {
+                    Files.deleteIfExists(directory.resolve(entry.getKey()));
+                } catch (IOException ex) {
+                    logger.warn("Unable to remove known good copy {}: {}", entry.getKey(), ex.getLocalizedMessage());
+                    continue;
+                }
+                totalBytes -= entry.getValue();
+                copiedHashes.remove(entry.getKey());
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Picks up the copies left by a previous run, oldest first, and removes any partially written ones.
+     */
+    private void loadCopies() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            files.sorted(Comparator.comparing(CircuitBreakingFileAccessor::lastModified)).forEach(file -> {
+                String name = file.getFileName().toString();
+                try {
+                    if (name.endsWith(TEMP_SUFFIX)) {
+                        Files.delete(file);
+                    } else {
+                        added(name, Files.size(file));
+                    }
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException ex) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private void succeeded(Stopwatch stopwatch) {
+        record(false, stopwatch);
+    }
+
+    private void failed(Stopwatch stopwatch, Exception ex) {
+        logger.debug("Call to {} failed: {}", delegate.getClass().getSimpleName(), ex.getLocalizedMessage());
+        record(true, stopwatch);
+    }
+
+    private void record(boolean failed, Stopwatch stopwatch) {
+        if (breaker.record(failed, stopwatch.elapsed(TimeUnit.MILLISECONDS))) {
+            logger.warn("Too many slow or failed calls to {}, serving last known good copies for {} ms",
+                    delegate.getClass().getSimpleName(), openMillis);
+            revalidator.schedule(this::revalidate, openMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Refreshes the metadata of every known file from the wrapped FileAccessor, by listing every known directory and
+     * looking up the files requested by path again. Closes the breaker if that succeeds and tries again later if it
+     * doesn't.
+     */
+    private void revalidate() {
+        try {
+            Set<String> refreshed = new HashSet<>();
+            for (String path : knownListings.keySet()) {
+                List<FileInformation> children;
+                try (Stream<FileInformation> listing = delegate.streamFileInformation(path)) {
+                    children = listing.collect(Collectors.toList());
+                }
+                for (FileInformation child : children) {
+                    remember(child);
+                    refreshed.add(child.getLocation());
+                }
+                knownListings.put(path, children);
+            }
+            for (Map.Entry<String, KnownFile> known : knownFiles.entrySet()) {
+                String path = known.getValue().getPath();
+                if (path != null && !refreshed.contains(known.getKey())) {
+                    remember(delegate.getFileInformation(path));
+                }
+            }
+            breaker.close();
+            logger.info("Revalidated {} files, using {} again", knownFiles.size(), delegate.getClass().getSimpleName());
+        } catch (Exception ex) {
+            logger.warn("Revalidation failed, retrying in {} ms: {}", openMillis, ex.getLocalizedMessage());
+            revalidator.schedule(this::revalidate, openMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void remember(FileInformation file) {
+        KnownFile known = knownFiles.computeIfAbsent(file.getLocation(), location -> new KnownFile());
+        known.setSize(file.getSize());
+        known.setContentHash(file.getContentHash());
+        known.setLastModified(file.getLastModifiedTimestamp());
+    }
+
+    /**
+     * Metadata of a file as last read successfully.
+     */
+    private static class KnownFile {
+        //The path the file was requested by, or null if it was only ever listed.
+        private volatile String path;
+        private volatile Optional<Long> size = Optional.empty();
+        private volatile Optional<String> contentHash = Optional.empty();
+        private volatile Optional<Instant> lastModified = Optional.empty();
+
+        private String getPath() {
+            return path;
+        }
+
+        private void setPath(String path) {
+            this.path = path;
+        }
+
+        private Optional<Long> getSize() {
+            return size;
+        }
+
+        private void setSize(Optional<Long> size) {
+            this.size = size;
+        }
+
+        private Optional<String> getContentHash() {
+            return contentHash;
+        }
+
+        private void setContentHash(Optional<String> contentHash) {
+            this.contentHash = contentHash;
+        }
+
+        private Optional<Instant> getLastModified() {
+            return lastModified;
+        }
+
+        private void setLastModified(Optional<Instant> lastModified) {
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Content read through the wrapped FileAccessor, which is written to a temporary file as it is read. Once read to
+     * the end and closed the temporary file replaces the known good copy; a read which is abandoned or fails leaves the
+     * known good copy as it was. A read failing partway through can't fall back to the copy, and fails as before.
+     */
+    private class CopyingInputStream extends FilterInputStream {
+        private final String name;
+        private final Optional<String> hash;
+        private final Stopwatch stopwatch;
+        private final Path temp;
+        private final OutputStream out;
+        private boolean copying = true;
+        private boolean complete;
+        private boolean failed;
+        private boolean closed;
+
+        private CopyingInputStream(InputStream in, String name, Optional<String> hash, Stopwatch stopwatch)
+                throws IOException {
+            super(in);
+            this.name = name;
+            this.hash = hash;
+            this.stopwatch = stopwatch;
+            this.temp = Files.createTempFile(directory, name, TEMP_SUFFIX);
+            try {
+                this.out = Files.newOutputStream(temp);
+            } catch (IOException ex) {
+                Files.deleteIfExists(temp);
+                throw ex;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read;
+            try {
+                read = in.read();
+            } catch (IOException | RuntimeException ex) {
+                fail(ex);
+                throw ex;
+            }
+            if (read < 0) {
+                complete = true;
+            } else {
+                copy(new byte[]{(byte) read}, 0, 1);
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read;
+            try {
+                read = in.read(b, off, len);
+            } catch (IOException | RuntimeException ex) {
+                fail(ex);
+                throw ex;
+            }
+            if (read < 0) {
+                complete = true;
+            } else {
+                copy(b, off, read);
+            }
+            return read;
+        }
+
+        //Skipped content can't be copied.
+        @Override
+        public long skip(long n) throws IOException {
+            copying = false;
+            return super.skip(n);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                in.close();
+            } finally {
+                if (!failed) {
+                    succeeded(stopwatch);
+                }
+                try {
+                    out.close();
+                    if (complete && copying) {
+                        Path copy = directory.resolve(name);
+                        Files.move(temp, copy, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                        if (hash.isPresent()) {
+                            copiedHashes.put(name, hash.get());
+                        } else {
+                            copiedHashes.remove(name);
+                        }
+                        added(name, Files.size(copy));
+                    }
+                } catch (IOException ex) {
+                    logger.warn("Unable to keep the known good copy {}: {}", name, ex.getLocalizedMessage());
+                } finally {
+                    Files.deleteIfExists(temp);
+                }
+            }
+        }
+
+        private void copy(byte[] b, int off, int len) {
+            if (!copying) {
+                return;
+            }
+            try {
+                out.write(b, off, len);
+            } catch (IOException ex) {
+                logger.warn("Unable to copy {}, reading it without a copy: {}", name, ex.getLocalizedMessage());
+                copying = false;
+            }
+        }
+
+        private void fail(Exception ex) {
+            if (!failed) {
+                failed = true;
+                failed(stopwatch, ex);
+            }
+        }
+    }
+
+    /**
+     * FileInformation whose metadata is read through the breaker, falling back to the last known good metadata.
+     */
+    private class GuardedFileInformation extends FileInformation {
+        private final FileInformation original;
+        //The path the file was requested by, or null for files found by a listing.
+        private final String path;
+
+        private GuardedFileInformation(FileInformation original) {
+            this(original, null);
+        }
+
+        private GuardedFileInformation(FileInformation original, String path) {
+            this.original = original;
+            this.path = path;
+        }
+
+        @Override
+        public URL getFileUrl() {
+            return original.getFileUrl();
+        }
+
+        @Override
+        public String getLocation() {
+            return original.getLocation();
+        }
+
+        @Override
+        public Optional<Instant> getLastModifiedTimestamp() {
+            return metadata(() -> original.getLastModifiedTimestamp(), KnownFile::getLastModified,
+                    KnownFile::setLastModified);
+        }
+
+        @Override
+        public Optional<Long> getSize() {
+            return metadata(() -> original.getSize(), KnownFile::getSize, KnownFile::setSize);
+        }
+
+        @Override
+        public Optional<String> getContentHash() {
+            return metadata(() -> original.getContentHash(), KnownFile::getContentHash, KnownFile::setContentHash);
+        }
+
+        private <T> Optional<T> metadata(Supplier<Optional<T>> read, Function<KnownFile, Optional<T>> lastKnown,
+                                         BiConsumer<KnownFile, Optional<T>> remember) {
+            KnownFile known = knownFiles.get(getLocation());
+            if (breaker.isOpen() && known != null) {
+                return lastKnown.apply(known);
+            }
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            try {
+                Optional<T> value = read.get();
+                succeeded(stopwatch);
+                KnownFile file = knownFiles.computeIfAbsent(getLocation(), location -> new KnownFile());
+                if (path != null) {
+                    file.setPath(path);
+                }
+                remember.accept(file, value);
+                return value;
+            } catch (RuntimeException ex) {
+                failed(stopwatch, ex);
+                if (known != null) {
+                    return lastKnown.apply(known);
+                }
+                throw ex;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return getLocation();
+        }
+    }
+}
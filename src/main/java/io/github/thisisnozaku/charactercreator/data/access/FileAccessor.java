@@ -5,8 +5,13 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Interface for abstracting accessing resources.
@@ -30,13 +35,38 @@ public interface FileAccessor {
      */
     FileInformation getFileInformation(URL path) throws URISyntaxException;
 
+    /**
+     * Get the path which {@link #getFileInformation(String)} resolves to the file at the given location, as reported
+     * by {@link FileInformation#getLocation()}.
+     *
+     * @param location  location of the file
+     * @return  path to the file
+     */
+    default String getPath(String location) {
+        return location;
+    }
+
     /**
      * Get FileInformation for all children of the directory at the given path.
      *
      * @param path  path to the directory
      * @return  information of all direct children of the directory
      */
-    List<FileInformation> getAllFileInformation(String path);
+    default List<FileInformation> getAllFileInformation(String path) {
+        try (Stream<FileInformation> children = streamFileInformation(path)) {
+            return children.collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Lazily stream FileInformation for all children of the directory at the given path. Children are fetched as the
+     * stream is consumed, so directories of any size can be walked in constant memory. The stream holds resources
+     * and must be closed.
+     *
+     * @param path  path to the directory
+     * @return  information of all direct children of the directory
+     */
+    Stream<FileInformation> streamFileInformation(String path);
 
     /**
      * Get an input stream for the resource at the given URL. The method is primarily for implementations that
@@ -46,4 +76,25 @@ public interface FileAccessor {
      * @return  the content stream
      */
     <T extends FileInformation> Optional<InputStream> getContent(T path) throws IOException;
+
+    /**
+     * Get a channel over the content of the given file. Implementations which can read the file through a channel
+     * directly, such as a FileChannel for local files, should override this to avoid copying through a stream.
+     *
+     * @param path  FileInformation of file to get content of
+     * @return  the content channel
+     */
+    default <T extends FileInformation> Optional<ReadableByteChannel> getContentChannel(T path) throws IOException {
+        return getContent(path).map(Channels::newChannel);
+    }
+
+    /**
+     * Get the content of the given file mapped into memory. Only files on the local file system can be mapped.
+     *
+     * @param path  FileInformation of file to get content of
+     * @return  the read-only content, or empty if the file can't be mapped
+     */
+    default <T extends FileInformation> Optional<ByteBuffer> getMappedContent(T path) throws IOException {
+        return Optional.empty();
+    }
 }
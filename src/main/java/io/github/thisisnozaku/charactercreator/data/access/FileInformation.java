@@ -1,22 +1,38 @@
 package io.github.thisisnozaku.charactercreator.data.access;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.ByteStreams;
+
 import javax.validation.constraints.NotNull;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.FileSystemNotFoundException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.time.Instant;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 /**
  * Class describing information for a given file accessible by a FileAccessor implementation.
  * <p>
- * Contains the URL for the file and a timestamp of when it was last modified.
+ * Contains the URL for the file, its size, a timestamp of when it was last modified and a hash of its content.
  */
 public class FileInformation {
+    //Hashes of local files, kept for as long as the size and modification time of the file stay the same.
+    private static final Cache<Path, ContentHash> contentHashes = CacheBuilder.newBuilder()
+            .maximumSize(1024)
+            .build();
     private URL fileUrl;
 
     public FileInformation(@NotNull URL fileUrl) {
@@ -29,6 +45,17 @@ public class FileInformation {
         return fileUrl;
     }
 
+    /**
+     * Returns a stable location for the file, which stays the same for as long as the file exists. Unlike the URL it
+     * never carries query parameters such as access signatures.
+     *
+     * @return the location of the file
+     */
+    public String getLocation() {
+        String location = getFileUrl().toExternalForm();
+        return location.contains("?") ? location.substring(0, location.indexOf('?')) : location;
+    }
+
     /**
      * Returns the last modified time of the resource pointed to by this, if available.
      *
@@ -42,4 +69,128 @@ public class FileInformation {
             return Optional.empty();
         }
     }
+
+    /**
+     * Returns the size in bytes of the resource pointed to by this, if available.
+     *
+     * @return the size of the file
+     */
+    public Optional<Long> getSize() {
+        try {
+            return Optional.of(Files.size(Paths.get(fileUrl.toURI())));
+        } catch (URISyntaxException | IOException | FileSystemNotFoundException | IllegalArgumentException ex) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Returns a hash of the content of the resource pointed to by this, if available. Two resources with the same
+     * hash have the same content, so a resource whose hash hasn't changed doesn't need to be read again.
+     * <p>
+     * The hash of a local file is only computed again once its size or modification time changes.
+     *
+     * @return the hex encoded SHA-256 of the file content
+     */
+    public Optional<String> getContentHash() {
+        try {
+            Path path = Paths.get(getFileUrl().toURI());
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            ContentHash known = contentHashes.getIfPresent(path);
+            if (known != null && known.matches(attributes)) {
+                return Optional.of(known.hash);
+            }
+            try (InputStream content = Files.newInputStream(path);
+                 HashingInputStream in = new HashingInputStream(Hashing.sha256(), content)) {
+                ByteStreams.copy(in, ByteStreams.nullOutputStream());
+                String hash = in.hash().toString();
+                remember(path, attributes, hash);
+                return Optional.of(hash);
+            }
+        } catch (URISyntaxException | IOException | FileSystemNotFoundException | IllegalArgumentException ex) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Wraps a stream of the content of the resource pointed to by this, so a local file is hashed while it is read
+     * rather than being read again by {@link #getContentHash()}. Once the stream has been read to the end and closed,
+     * the hash is passed to the given consumer, unless the file changed in the meantime.
+     *
+     * @param content the content of the resource
+     * @param hashed  receives the hash of the content
+     * @return the stream to read the content from
+     */
+    public InputStream hashingContent(InputStream content, Consumer<String> hashed) {
+        Path path;
+        BasicFileAttributes attributes;
+        try {
+            path = Paths.get(getFileUrl().toURI());
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (URISyntaxException | IOException | FileSystemNotFoundException | IllegalArgumentException ex) {
+            return content;
+        }
+        HashingInputStream hashing = new HashingInputStream(Hashing.sha256(), content);
+        return new FilterInputStream(hashing) {
+            private boolean finished;
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                finished |= b == -1;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                finished |= read == -1;
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException {
+                super.close();
+                if (finished) {
+                    String hash = hashing.hash().toString();
+                    if (remember(path, attributes, hash)) {
+                        hashed.accept(hash);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Remembers the hash of the given file, if it still has the given attributes.
+     *
+     * @return if the file was unchanged
+     */
+    private static boolean remember(Path path, BasicFileAttributes attributes, String hash) {
+        ContentHash contentHash = new ContentHash(attributes, hash);
+        try {
+            if (!contentHash.matches(Files.readAttributes(path, BasicFileAttributes.class))) {
+                return false;
+            }
+        } catch (IOException ex) {
+            return false;
+        }
+        contentHashes.put(path, contentHash);
+        return true;
+    }
+
+    private static class ContentHash {
+        private final long size;
+        private final FileTime lastModified;
+        private final String hash;
+
+        private ContentHash(BasicFileAttributes attributes, String hash) {
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime();
+            this.hash = hash;
+        }
+
+        private boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size() && Objects.equals(lastModified, attributes.lastModifiedTime());
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package io.github.thisisnozaku.charactercreator.data.access;
 
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
@@ -7,18 +8,24 @@ import org.springframework.util.Assert;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemNotFoundException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Instant;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Implementation of FileAccessor for use with a local file system.
@@ -26,6 +33,7 @@ import java.util.Optional;
  * Created by Damien on 9/11/2016.
  */
 @Profile("dev")
+@Qualifier("fileStorage")
 @Service
 public class LocalFileSystemAccess implements FileAccessor {
     private final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(LocalFileSystemAccess.class);
@@ -49,24 +57,28 @@ public class LocalFileSystemAccess implements FileAccessor {
     }
 
     @Override
-    public List<FileInformation> getAllFileInformation(String path) {
-        List<FileInformation> urls = new LinkedList<>();
+    public Stream<FileInformation> streamFileInformation(String path) {
         try {
-            Path p = Paths.get(new File(path).toURI());
-            try (DirectoryStream<Path> stream = Files.newDirectoryStream(p)) {
-                stream.forEach(filePath -> {
-                    try {
-                        urls.add(new FileInformation(filePath.toUri().toURL()));
-                    } catch (IOException ex) {
-                        //Should never happen; can't throw checked exception inside a lambda
-                        throw new RuntimeException(ex);
-                    }
-                });
-            }
+            DirectoryStream<Path> directory = Files.newDirectoryStream(Paths.get(new File(path).toURI()));
+            return StreamSupport.stream(directory.spliterator(), false)
+                    .map(filePath -> {
+                        try {
+                            return new FileInformation(filePath.toUri().toURL());
+                        } catch (IOException ex) {
+                            //Should never happen; can't throw checked exception inside a lambda
+                            throw new UncheckedIOException(ex);
+                        }
+                    })
+                    .onClose(() -> {
+                        try {
+                            directory.close();
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    });
         } catch (IOException ex) {
-            throw new RuntimeException(ex);
+            throw new UncheckedIOException(ex);
         }
-        return urls;
     }
 
     @Override
@@ -76,4 +88,39 @@ public class LocalFileSystemAccess implements FileAccessor {
         }
         return Optional.of(path.getFileUrl().openStream());
     }
+
+    @Override
+    public Optional<ReadableByteChannel> getContentChannel(FileInformation path) throws IOException {
+        Optional<Path> file = localPath(path);
+        if (!file.isPresent()) {
+            return FileAccessor.super.getContentChannel(path);
+        }
+        return Optional.of(FileChannel.open(file.get(), StandardOpenOption.READ));
+    }
+
+    @Override
+    public Optional<ByteBuffer> getMappedContent(FileInformation path) throws IOException {
+        Optional<Path> file = localPath(path);
+        if (!file.isPresent()) {
+            return Optional.empty();
+        }
+        try (FileChannel channel = FileChannel.open(file.get(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                return Optional.empty();
+            }
+            //The mapping stays valid after the channel is closed.
+            return Optional.of(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    private static Optional<Path> localPath(FileInformation path) {
+        if (path == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(Paths.get(path.getFileUrl().toURI()));
+        } catch (URISyntaxException | IllegalArgumentException | FileSystemNotFoundException ex) {
+            return Optional.empty();
+        }
+    }
 }
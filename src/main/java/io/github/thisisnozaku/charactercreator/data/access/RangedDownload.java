@@ -0,0 +1,203 @@
+package io.github.thisisnozaku.charactercreator.data.access;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Downloads a large S3 object as several byte ranges fetched in parallel, each written straight to its place in a
+ * temporary file. The content can be read while the download is still running: a read only waits for the range it
+ * reads from.
+ * <p>
+ * Every range is requested with the ETag of the object, so an object replaced during the download fails the download
+ * instead of producing a mix of two versions. A range which fails for any other reason is retried on its own, and once
+ * a range has failed for good the ranges still downloading stop and those not yet started are skipped.
+ */
+class RangedDownload {
+    private static final Logger logger = LoggerFactory.getLogger(RangedDownload.class);
+    private static final long RETRY_DELAY_MILLIS = 200;
+    //Ranges are copied in steps of this size, so a range whose download was abandoned stops soon after.
+    private static final long TRANSFER_BYTES = 1048576;
+    private final AmazonS3 s3;
+    private final Executor executor;
+    private final long partBytes;
+    private final int attempts;
+
+    RangedDownload(AmazonS3 s3, Executor executor, long partBytes, int attempts) {
+        this.s3 = s3;
+        this.executor = executor;
+        this.partBytes = partBytes;
+        this.attempts = attempts;
+    }
+
+    /**
+     * Starts downloading the given object, returning a channel over its content straight away. Reading the channel
+     * fails if a range the read needs could not be downloaded. Closing the channel stops the download and deletes the
+     * temporary file.
+     *
+     * @param bucket the bucket of the object
+     * @param key    the key of the object
+     * @param size   the size of the object in bytes
+     * @param eTag   the ETag of the object
+     * @return the channel over the content of the object
+     * @throws IOException if the temporary file could not be created
+     */
+    ReadableByteChannel stream(String bucket, String key, long size, String eTag) throws IOException {
+        Path file = Files.createTempFile("s3-download-", ".part");
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(file);
+            throw ex;
+        }
+        try {
+            //Ranges can only be written within the current size of the file, so grow it to its final size first.
+            if (size > 0) {
+                channel.write(ByteBuffer.wrap(new byte[1]), size - 1);
+            }
+            AtomicBoolean abandoned = new AtomicBoolean();
+            List<CompletableFuture<Void>> parts = new ArrayList<>();
+            for (long offset = 0; offset < size; offset += partBytes) {
+                long start = offset;
+                long end = Math.min(start + partBytes, size) - 1;
+                parts.add(CompletableFuture.runAsync(() -> fetch(bucket, key, eTag, start, end, channel, abandoned),
+                        executor).whenComplete((v, ex) -> {
+                    if (ex != null) {
+                        abandoned.set(true);
+                    }
+                }));
+            }
+            return new RangeChannel(key, size, channel, parts, abandoned);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    private void fetch(String bucket, String key, String eTag, long start, long end, FileChannel channel,
+                       AtomicBoolean abandoned) {
+        for (int attempt = 1; !abandoned.get(); attempt++) {
+            GetObjectRequest request = new GetObjectRequest(bucket, key)
+                    .withRange(start, end)
+                    .withMatchingETagConstraint(eTag);
+            try (S3Object object = s3.getObject(request)) {
+                if (object == null) {
+                    throw new IllegalStateException(String.format("%s changed during the download", key));
+                }
+                try (ReadableByteChannel in = Channels.newChannel(object.getObjectContent())) {
+                    long position = start;
+                    while (position <= end) {
+                        if (abandoned.get()) {
+                            //Closing the stream would read the rest of the range just to reuse the connection.
+                            object.getObjectContent().abort();
+                            return;
+                        }
+                        long transferred = channel.transferFrom(in, position,
+                                Math.min(end - position + 1, TRANSFER_BYTES));
+                        if (transferred <= 0) {
+                            throw new IOException(String.format("Range %d-%d of %s ended early", start, end, key));
+                        }
+                        position += transferred;
+                    }
+                }
+                return;
+            } catch (IllegalStateException ex) {
+                throw ex;
+            } catch (IOException | RuntimeException ex) {
+                if (abandoned.get()) {
+                    return;
+                }
+                if (attempt >= attempts) {
+                    throw new CompletionException(ex);
+                }
+                logger.warn("Range {}-{} of {} failed, retrying: {}", start, end, key, ex.getLocalizedMessage());
+                try {
+                    Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new CompletionException(interrupted);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the downloaded file in order, waiting for each range to arrive before reading from it.
+     */
+    private class RangeChannel implements ReadableByteChannel {
+        private final String key;
+        private final long size;
+        private final FileChannel file;
+        private final List<CompletableFuture<Void>> parts;
+        private final AtomicBoolean abandoned;
+        private long position;
+
+        private RangeChannel(String key, long size, FileChannel file, List<CompletableFuture<Void>> parts,
+                             AtomicBoolean abandoned) {
+            this.key = key;
+            this.size = size;
+            this.file = file;
+            this.parts = parts;
+            this.abandoned = abandoned;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (position >= size) {
+                return -1;
+            }
+            int part = (int) (position / partBytes);
+            try {
+                parts.get(part).get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                close();
+                throw new InterruptedIOException(String.format("Interrupted while downloading %s", key));
+            } catch (ExecutionException ex) {
+                throw new IOException(String.format("Unable to download %s", key), ex.getCause());
+            }
+            //Only read up to the end of the range waited for, the next one may not have arrived yet.
+            long available = Math.min((part + 1) * partBytes, size) - position;
+            ByteBuffer window = dst.duplicate();
+            window.limit(window.position() + (int) Math.min(dst.remaining(), available));
+            int read = file.read(window, position);
+            if (read > 0) {
+                dst.position(window.position());
+                position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return file.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            abandoned.set(true);
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package io.github.thisisnozaku.charactercreator.data.access;
+
+/**
+ * Exponentially weighted moving averages of the latency and error rate of calls to a single replica, so recent calls
+ * count the most while a single outlier doesn't change the ranking of replicas on its own.
+ */
+class ReplicaHealth {
+    //Weight of the newest call in the averages.
+    private static final double ALPHA = 0.2;
+    private double latencyMillis;
+    private double errorRate;
+    private long calls;
+    private long timedCalls;
+
+    /**
+     * Records the outcome of a call.
+     *
+     * @param elapsedMillis how long the call took
+     * @param failed        whether the call failed
+     */
+    synchronized void record(long elapsedMillis, boolean failed) {
+        latencyMillis = timedCalls++ == 0 ? elapsedMillis : latencyMillis + ALPHA * (elapsedMillis - latencyMillis);
+        recordOutcome(failed);
+    }
+
+    /**
+     * Records the outcome of a call whose duration says nothing about the latency of the replica, such as a download
+     * whose duration depends mostly on the size of the file.
+     *
+     * @param failed whether the call failed
+     */
+    synchronized void recordOutcome(boolean failed) {
+        errorRate = calls++ == 0 ? (failed ? 1 : 0) : errorRate + ALPHA * ((failed ? 1 : 0) - errorRate);
+    }
+
+    /**
+     * Returns the average latency, which is 0 until a call has been recorded so unmeasured replicas are tried first.
+     *
+     * @return the average latency in milliseconds
+     */
+    synchronized double getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    synchronized double getErrorRate() {
+        return errorRate;
+    }
+
+    synchronized long getCalls() {
+        return calls;
+    }
+}
@@ -0,0 +1,474 @@
+package io.github.thisisnozaku.charactercreator.data.access;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PreDestroy;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.channels.ReadableByteChannel;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * FileAccessor reading from several replicas holding the same files, such as copies of the plugin bucket in different
+ * regions.
+ * <p>
+ * The latency and error rate of every replica are measured on each call, and by a periodic probe of the most recently
+ * read file. Reads go to the fastest replica whose error rate is acceptable, falling back to the others in order of
+ * their latency when it fails. A read which hasn't finished within the hedge delay is sent to the next replica as well,
+ * and whichever answers first is used. Content larger than the hedge limit is downloaded before it is returned, so
+ * reading it is neither hedged nor counted towards the latency of a replica.
+ * <p>
+ * Files are identified by their path relative to the root of each replica, and their location is always that of the
+ * first replica, so it doesn't change with the replica a file was read from.
+ */
+public class ReplicatedFileAccessor implements FileAccessor {
+    private static final Logger logger = LoggerFactory.getLogger(ReplicatedFileAccessor.class);
+    private final List<Replica> replicas;
+    private final long hedgeMillis;
+    private final long hedgeMaxBytes;
+    private final double maxErrorRate;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService prober;
+    private volatile String lastReadPath;
+
+    /**
+     * @param replicas     the replicas, in order of preference while they haven't been measured, with distinct names
+     * @param hedgeMillis   how long a read may take before it is sent to the next replica as well
+     * @param hedgeMaxBytes content of files up to this size is read with hedging, larger files only fail over
+     * @param maxErrorRate  replicas with a higher average error rate are only read from when all others failed
+     * @param probeMillis   how often the latency of every replica is measured
+     */
+    public ReplicatedFileAccessor(List<Replica> replicas, long hedgeMillis, long hedgeMaxBytes, double maxErrorRate,
+                                  long probeMillis) {
+        if (replicas.isEmpty()) {
+            throw new IllegalArgumentException("At least one replica is required.");
+        }
+        Set<String> names = new HashSet<>();
+        for (Replica replica : replicas) {
+            if (!names.add(replica.name)) {
+                throw new IllegalArgumentException("Replica " + replica.name + " is configured more than once.");
+            }
+        }
+        this.replicas = new ArrayList<>(replicas);
+        this.hedgeMillis = hedgeMillis;
+        this.hedgeMaxBytes = hedgeMaxBytes;
+        this.maxErrorRate = maxErrorRate;
+        this.executor = Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder().setNameFormat("file-replica-%d").setDaemon(true).build());
+        this.prober = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("file-replica-probe").setDaemon(true).build());
+        prober.scheduleWithFixedDelay(this::probe, probeMillis, probeMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public FileInformation getFileInformation(String path) {
+        return new ReplicatedFileInformation(relativePath(path));
+    }
+
+    @Override
+    public FileInformation getFileInformation(URL path) {
+        return getFileInformation(path.toExternalForm());
+    }
+
+    @Override
+    public String getPath(String location) {
+        return relativePath(location);
+    }
+
+    /**
+     * Lists the given directory on the fastest replica which can start the listing.
+     */
+    @Override
+    public Stream<FileInformation> streamFileInformation(String path) {
+        RuntimeException failure = null;
+        for (Replica replica : ranked()) {
+            long start = System.nanoTime();
+            try {
+                Stream<FileInformation> listing = replica.accessor.streamFileInformation(path);
+                replica.health.record(elapsedMillis(start), false);
+                return listing.map(file -> new ReplicatedFileInformation(replica, file));
+            } catch (RuntimeException ex) {
+                replica.health.record(elapsedMillis(start), true);
+                logger.warn("Listing {} on {} failed: {}", path, replica.name, ex.getLocalizedMessage());
+                if (failure == null) {
+                    failure = ex;
+                } else {
+                    failure.addSuppressed(ex);
+                }
+            }
+        }
+        throw failure;
+    }
+
+    @Override
+    public <T extends FileInformation> Optional<InputStream> getContent(T file) throws IOException {
+        String path = pathOf(file);
+        lastReadPath = path;
+        return race("Reading " + path, replica -> replica.accessor.getContent(replica.resolve(path)),
+                content -> content.ifPresent(ReplicatedFileAccessor::close), isHedged(file, path));
+    }
+
+    @Override
+    public <T extends FileInformation> Optional<ReadableByteChannel> getContentChannel(T file) throws IOException {
+        String path = pathOf(file);
+        lastReadPath = path;
+        return race("Reading " + path, replica -> replica.accessor.getContentChannel(replica.resolve(path)),
+                content -> content.ifPresent(ReplicatedFileAccessor::close), isHedged(file, path));
+    }
+
+    /**
+     * Returns the average latency and error rate of every replica.
+     *
+     * @return the statistics of each replica, by name
+     */
+    public Map<String, Map<String, Double>> getStatistics() {
+        return replicas.stream().collect(Collectors.toMap(replica -> replica.name, replica -> {
+            Map<String, Double> statistics = new LinkedHashMap<>();
+            statistics.put("latencyMillis", replica.health.getLatencyMillis());
+            statistics.put("errorRate", replica.health.getErrorRate());
+            statistics.put("calls", (double) replica.health.getCalls());
+            return statistics;
+        }));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        prober.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns the replicas in the order they should be tried: healthy ones by latency, then the others by latency.
+     */
+    private List<Replica> ranked() {
+        List<Replica> ranked = new ArrayList<>(replicas);
+        //The sort is stable, so replicas which measure the same keep their configured order.
+        ranked.sort(Comparator.<Replica, Boolean>comparing(replica -> replica.health.getErrorRate() > maxErrorRate)
+                .thenComparingDouble(replica -> replica.health.getLatencyMillis()));
+        return ranked;
+    }
+
+    /**
+     * Returns if reading the content of the given file returns as soon as the response starts, so a slow read can be
+     * hedged and its duration measures the replica. Larger files are downloaded before their content is returned.
+     */
+    private boolean isHedged(FileInformation file, String path) {
+        try {
+            FileInformation replicated = file instanceof ReplicatedFileInformation ? file :
+                    new ReplicatedFileInformation(path);
+            Optional<Long> size = replicated.getSize();
+            return size.isPresent() && size.get() <= hedgeMaxBytes;
+        } catch (UncheckedIOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Calls the fastest replica, hedging with the next one whenever no answer arrived within the hedge delay and
+     * moving on to the next one straight away when a call fails.
+     *
+     * @param description describes the call for errors
+     * @param call        the call to make on a replica
+     * @param discarder   releases answers arriving after another replica already answered
+     * @return the first answer
+     * @throws IOException if every replica failed
+     */
+    private <T> T race(String description, ReplicaCall<T> call, Consumer<T> discarder) throws IOException {
+        return race(description, call, discarder, true);
+    }
+
+    /**
+     * Calls the replicas like {@link #race(String, ReplicaCall, Consumer)}, but a call which isn't hedged only moves
+     * on to the next replica when it fails, and only its outcome is recorded since its duration isn't a latency.
+     */
+    private <T> T race(String description, ReplicaCall<T> call, Consumer<T> discarder, boolean hedged)
+            throws IOException {
+        Race<T> race = new Race<>(description, ranked().iterator(), call, discarder, hedged);
+        race.next();
+        while (true) {
+            try {
+                return hedged ? race.result.get(hedgeMillis, TimeUnit.MILLISECONDS) : race.result.get();
+            } catch (TimeoutException ex) {
+                if (race.next()) {
+                    logger.debug("{} is taking longer than {} ms, hedging", description, hedgeMillis);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(description + " was interrupted");
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof IOException) {
+                    throw (IOException) ex.getCause();
+                }
+                throw new IOException(ex.getCause());
+            }
+        }
+    }
+
+    /**
+     * Measures every replica by reading the metadata of the most recently read file.
+     */
+    private void probe() {
+        String path = lastReadPath;
+        if (path == null) {
+            return;
+        }
+        for (Replica replica : replicas) {
+            long start = System.nanoTime();
+            try {
+                replica.resolve(path).getSize();
+                replica.health.record(elapsedMillis(start), false);
+            } catch (Exception ex) {
+                replica.health.record(elapsedMillis(start), true);
+                logger.warn("Probing {} failed: {}", replica.name, ex.getLocalizedMessage());
+            }
+        }
+    }
+
+    private String pathOf(FileInformation file) {
+        return file instanceof ReplicatedFileInformation ? ((ReplicatedFileInformation) file).path :
+                relativePath(file.getLocation());
+    }
+
+    /**
+     * Turns a location on any of the replicas into a path relative to the root of the replicas.
+     */
+    private String relativePath(String location) {
+        String path = location.contains("?") ? location.substring(0, location.indexOf('?')) : location;
+        for (Replica replica : replicas) {
+            if (path.startsWith(replica.baseLocation)) {
+                return path.substring(replica.baseLocation.length());
+            }
+        }
+        return path.startsWith("/") ? path.substring(1) : path;
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private static void close(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ex) {
+            logger.warn("Unable to close abandoned content: {}", ex.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * A FileAccessor holding a copy of the files.
+     */
+    public static class Replica {
+        private final String name;
+        private final FileAccessor accessor;
+        private final String baseLocation;
+        private final ReplicaHealth health = new ReplicaHealth();
+
+        /**
+         * @param name         the name of the replica, for logs and statistics
+         * @param accessor     the FileAccessor of the replica, which takes paths relative to its root
+         * @param baseLocation the location of the root of the replica, which the locations of its files start with
+         */
+        public Replica(String name, FileAccessor accessor, String baseLocation) {
+            this.name = name;
+            this.accessor = accessor;
+            this.baseLocation = baseLocation;
+        }
+
+        private FileInformation resolve(String path) throws IOException {
+            try {
+                return accessor.getFileInformation(path);
+            } catch (URISyntaxException ex) {
+                throw new IOException(ex);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    @FunctionalInterface
+    private interface ReplicaCall<T> {
+        T call(Replica replica) throws IOException;
+    }
+
+    /**
+     * The calls made to the replicas for a single read, of which the first successful one wins.
+     */
+    private class Race<T> {
+        private final String description;
+        private final Iterator<Replica> remaining;
+        private final ReplicaCall<T> call;
+        private final Consumer<T> discarder;
+        private final boolean hedged;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private int running;
+        private IOException failure;
+
+        private Race(String description, Iterator<Replica> remaining, ReplicaCall<T> call, Consumer<T> discarder,
+                     boolean hedged) {
+            this.description = description;
+            this.remaining = remaining;
+            this.call = call;
+            this.discarder = discarder;
+            this.hedged = hedged;
+        }
+
+        /**
+         * Calls the next replica, unless the race is over or there are no replicas left.
+         *
+         * @return true if another replica was called
+         */
+        private synchronized boolean next() {
+            if (result.isDone() || !remaining.hasNext()) {
+                return false;
+            }
+            Replica replica = remaining.next();
+            running++;
+            executor.execute(() -> attempt(replica));
+            return true;
+        }
+
+        private void attempt(Replica replica) {
+            long start = System.nanoTime();
+            T value;
+            try {
+                value = call.call(replica);
+            } catch (IOException | RuntimeException ex) {
+                record(replica, start, true);
+                failed(replica, ex);
+                return;
+            }
+            record(replica, start, false);
+            if (!result.complete(value)) {
+                discarder.accept(value);
+            }
+        }
+
+        private void record(Replica replica, long start, boolean failed) {
+            if (hedged) {
+                replica.health.record(elapsedMillis(start), failed);
+            } else {
+                replica.health.recordOutcome(failed);
+            }
+        }
+
+        private synchronized void failed(Replica replica, Exception ex) {
+            logger.warn("{} from {} failed: {}", description, replica.name, ex.getLocalizedMessage());
+            running--;
+            if (failure == null) {
+                failure = new IOException(description + " failed on every replica");
+            }
+            failure.addSuppressed(ex);
+            if (!next() && running == 0) {
+                result.completeExceptionally(failure);
+            }
+        }
+    }
+
+    /**
+     * FileInformation identified by its path on the replicas, whose metadata is read from the fastest replica.
+     */
+    private class ReplicatedFileInformation extends FileInformation {
+        private final String path;
+        //Information already resolved on a replica, such as from a listing, which answers metadata without a call.
+        private final Map<Replica, FileInformation> resolved = new ConcurrentHashMap<>();
+
+        private ReplicatedFileInformation(String path) {
+            this.path = path;
+        }
+
+        private ReplicatedFileInformation(Replica replica, FileInformation file) {
+            this(relativePath(file.getLocation()));
+            resolved.put(replica, file);
+        }
+
+        @Override
+        public URL getFileUrl() {
+            Replica replica = ranked().get(0);
+            try {
+                return resolved(replica).getFileUrl();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        @Override
+        public String getLocation() {
+            return replicas.get(0).baseLocation + path;
+        }
+
+        @Override
+        public Optional<Instant> getLastModifiedTimestamp() {
+            return metadata(FileInformation::getLastModifiedTimestamp);
+        }
+
+        @Override
+        public Optional<Long> getSize() {
+            return metadata(FileInformation::getSize);
+        }
+
+        @Override
+        public Optional<String> getContentHash() {
+            return metadata(FileInformation::getContentHash);
+        }
+
+        private <V> Optional<V> metadata(Function<FileInformation, Optional<V>> read) {
+            for (FileInformation file : resolved.values()) {
+                try {
+                    return read.apply(file);
+                } catch (RuntimeException ex) {
+                    logger.debug("Reading metadata of {} failed, trying every replica: {}", path, ex.getLocalizedMessage());
+                }
+            }
+            try {
+                return race("Reading metadata of " + path, replica -> read.apply(resolved(replica)), value -> { });
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        private FileInformation resolved(Replica replica) throws IOException {
+            FileInformation file = resolved.get(replica);
+            if (file == null) {
+                file = replica.resolve(path);
+                resolved.put(replica, file);
+            }
+            return file;
+        }
+
+        @Override
+        public String toString() {
+            return path;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package io.github.thisisnozaku.charactercreator.exceptions;
+
+import io.github.thisisnozaku.charactercreator.plugins.PluginDescription;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Exception generated when trying to access a plugin that is still being loaded.
+ */
+@ResponseStatus(value = HttpStatus.SERVICE_UNAVAILABLE, reason = "The plugin is still loading")
+public class PluginLoadingException extends RuntimeException {
+    private final PluginDescription loadingPlugin;
+
+    public PluginLoadingException(PluginDescription loadingPlugin) {
+        this.loadingPlugin = loadingPlugin;
+    }
+
+    public PluginDescription getLoadingPlugin() {
+        return loadingPlugin;
+    }
+}
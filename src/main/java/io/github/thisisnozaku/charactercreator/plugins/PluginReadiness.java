@@ -0,0 +1,34 @@
+package io.github.thisisnozaku.charactercreator.plugins;
+
+import java.util.Map;
+
+/**
+ * Reports the progress of loading the plugins found at startup.
+ */
+public interface PluginReadiness {
+    /**
+     * Returns the load state of every plugin archive that has been found, keyed by the location of the archive.
+     *
+     * @return the load states
+     */
+    Map<String, State> getPluginStates();
+
+    /**
+     * Returns if every plugin found at startup has finished loading, successfully or not.
+     *
+     * @return if startup loading is complete
+     */
+    boolean isReady();
+
+    /**
+     * Returns if the plugin with the given description may still become available once loading finishes.
+     *
+     * @param pluginDescription the description of the plugin
+     * @return if the plugin is loading
+     */
+    boolean isLoading(PluginDescription pluginDescription);
+
+    enum State {
+        PENDING, LOADING, READY, FAILED
+    }
+}
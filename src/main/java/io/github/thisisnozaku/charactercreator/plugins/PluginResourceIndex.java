@@ -0,0 +1,167 @@
+package io.github.thisisnozaku.charactercreator.plugins;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.ByteStreams;
+import org.osgi.framework.Bundle;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Immutable index of every resource inside a plugin bundle, built once when the bundle is installed or updated.
+ * <p>
+ * Looking a resource up, including deciding that it doesn't exist, only touches the index and never the bundle.
+ * Building the index doesn't read the content of entries whose size the bundle knows; content hashes are computed when
+ * they are first asked for.
+ */
+public class PluginResourceIndex {
+    private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+    private final Map<String, Entry> entries;
+
+    private PluginResourceIndex(Map<String, Entry> entries) {
+        this.entries = ImmutableMap.copyOf(entries);
+    }
+
+    /**
+     * Builds the index of the given bundle by enumerating all of its entries.
+     *
+     * @param bundle           the plugin bundle
+     * @param resourceMappings mappings from resource names to paths inside the bundle, which are added as aliases
+     *                         taking precedence over entries of the same name
+     * @return the index
+     * @throws IOException if an entry could not be read
+     */
+    public static PluginResourceIndex build(Bundle bundle, Map<String, String> resourceMappings) throws IOException {
+        Map<String, Entry> entries = new HashMap<>();
+        Enumeration<URL> urls = bundle.findEntries("/", "*", true);
+        while (urls != null && urls.hasMoreElements()) {
+            URL url = urls.nextElement();
+            String path = normalize(url.getPath());
+            if (path.isEmpty() || path.endsWith("/")) {
+                continue;
+            }
+            entries.put(path, readEntry(path, url, bundle.getLastModified()));
+        }
+        resourceMappings.forEach((name, path) -> {
+            Entry entry = entries.get(normalize(path));
+            if (entry != null) {
+                entries.put(name, entry);
+            }
+        });
+        return new PluginResourceIndex(entries);
+    }
+
+    /**
+     * Returns an index without any resources, for a bundle whose entries couldn't be read.
+     *
+     * @return the empty index
+     */
+    public static PluginResourceIndex empty() {
+        return new PluginResourceIndex(Collections.emptyMap());
+    }
+
+    /**
+     * Looks up a resource by its path inside the bundle or by a resource mapping name.
+     *
+     * @param resourceName the path or mapping name of the resource
+     * @return the resource entry, or empty if the bundle doesn't contain it
+     */
+    public Optional<Entry> lookup(String resourceName) {
+        return Optional.ofNullable(entries.get(normalize(resourceName)));
+    }
+
+    /**
+     * Returns the names that can be looked up, both paths and resource mapping names.
+     *
+     * @return the resource names
+     */
+    public Collection<String> getResourceNames() {
+        return entries.keySet();
+    }
+
+    private static Entry readEntry(String path, URL url, long bundleLastModified) throws IOException {
+        URLConnection connection = url.openConnection();
+        long size = connection.getContentLengthLong();
+        if (size < 0) {
+            try (InputStream in = connection.getInputStream()) {
+                size = ByteStreams.copy(in, ByteStreams.nullOutputStream());
+            }
+        }
+        String contentType = URLConnection.getFileNameMap().getContentTypeFor(path);
+        long lastModified = connection.getLastModified() > 0 ? connection.getLastModified() : bundleLastModified;
+        return new Entry(path, size, contentType != null ? contentType : DEFAULT_CONTENT_TYPE, url, lastModified);
+    }
+
+    private static String normalize(String path) {
+        return path.startsWith("/") ? path.substring(1) : path;
+    }
+
+    /**
+     * Information about a single resource in a plugin bundle.
+     */
+    public static final class Entry {
+        private final String path;
+        private final long size;
+        private final String contentType;
+        private final URL url;
+        private final long lastModified;
+        private volatile String contentHash;
+
+        Entry(String path, long size, String contentType, URL url, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.contentType = contentType;
+            this.url = url;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * The path of the resource inside the bundle, with any resource mapping already applied.
+         */
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * Hex encoded SHA-256 of the resource content, read from the bundle the first time it is asked for.
+         *
+         * @throws UncheckedIOException if the content can't be read
+         */
+        public String getContentHash() {
+            String hash = contentHash;
+            if (hash == null) {
+                try (HashingInputStream in = new HashingInputStream(Hashing.sha256(), url.openStream())) {
+                    ByteStreams.copy(in, ByteStreams.nullOutputStream());
+                    hash = in.hash().toString();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                contentHash = hash;
+            }
+            return hash;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package io.github.thisisnozaku.charactercreator.plugins;
+
+import org.springframework.core.io.Resource;
+
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Provides the resources contained in plugins in a form that can be served directly.
+ */
+public interface PluginResourceProvider {
+    /**
+     * Returns the named resource of the given plugin.
+     *
+     * @param pluginDescription the plugin
+     * @param resourceName      the name of the resource, either a path inside the plugin or a resource mapping name
+     * @return the resource, or empty if the plugin or resource doesn't exist
+     */
+    Optional<Resource> getResource(PluginDescription pluginDescription, String resourceName);
+
+    /**
+     * Returns the index of all resources in the given plugin.
+     *
+     * @param pluginDescription the plugin
+     * @return the resource index, or empty if the plugin doesn't exist
+     */
+    Optional<PluginResourceIndex> getResourceIndex(PluginDescription pluginDescription);
+
+    /**
+     * Returns statistics about the cache of plugin resources, such as its hit, miss and eviction counts.
+     *
+     * @return the cache statistics
+     */
+    Map<String, Long> getCacheStatistics();
+}
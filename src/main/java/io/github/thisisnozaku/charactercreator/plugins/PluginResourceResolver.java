@@ -3,7 +3,6 @@ package io.github.thisisnozaku.charactercreator.plugins;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
 import org.springframework.stereotype.Service;
 import org.springframework.web.servlet.resource.ResourceResolver;
 import org.springframework.web.servlet.resource.ResourceResolverChain;
@@ -11,8 +10,6 @@ import org.springframework.web.servlet.resource.ResourceResolverChain;
 import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
 import java.io.UnsupportedEncodingException;
-import java.net.MalformedURLException;
-import java.net.URI;
 import java.net.URLDecoder;
 import java.util.Arrays;
 import java.util.List;
@@ -27,7 +24,7 @@ public class PluginResourceResolver implements ResourceResolver {
     private static final Logger logger = LoggerFactory.getLogger(PluginResourceResolver.class);
     @SuppressWarnings({"CanBeFinal", "unused"})
     @Inject
-    private PluginManager pluginManager;
+    private PluginResourceProvider pluginResources;
 
     @Override
     public Resource resolveResource(HttpServletRequest request, String requestPath, List<? extends Resource> locations, ResourceResolverChain chain) {
@@ -47,19 +44,13 @@ public class PluginResourceResolver implements ResourceResolver {
             if (resourcePath.equals("")) {
                 resourcePath = "character";
             }
-            Optional<URI> resource = pluginManager.getPluginResource(incomingPluginDescription, resourcePath);
-
-            try {
-                if (resource.isPresent()) {
-                    logger.debug("Resource was found");
-                    return new UrlResource(resource.get());
-                } else {
-                    logger.debug("Resource was NOT found");
-                    return null;
-                }
-
-            } catch (MalformedURLException ex) {
-                throw new RuntimeException(ex);
+            Optional<Resource> resource = pluginResources.getResource(incomingPluginDescription, resourcePath);
+            if (resource.isPresent()) {
+                logger.debug("Resource was found");
+                return resource.get();
+            } else {
+                logger.debug("Resource was NOT found");
+                return null;
             }
 
         } catch (UnsupportedEncodingException e) {
@@ -0,0 +1,86 @@
+package io.github.thisisnozaku.charactercreator.plugins.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers the content hash of the plugin archive last installed from each location, so an archive which is
+ * published again without changes can be recognised without downloading it.
+ * <p>
+ * When given a file the hashes are also written to it, so they survive restarts along with the installed bundles.
+ */
+class ArchiveHashStore {
+    private static final Logger logger = LoggerFactory.getLogger(ArchiveHashStore.class);
+    private final ConcurrentMap<String, String> hashes = new ConcurrentHashMap<>();
+    //Null when the hashes are only kept in memory.
+    private final Path file;
+
+    ArchiveHashStore() {
+        this.file = null;
+    }
+
+    /**
+     * Creates a store backed by the given file, loading the hashes already in it.
+     *
+     * @param file the file holding the hashes
+     */
+    ArchiveHashStore(Path file) {
+        this.file = file;
+        if (Files.exists(file)) {
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(file)) {
+                properties.load(in);
+                properties.stringPropertyNames().forEach(location -> hashes.put(location,
+                        properties.getProperty(location)));
+            } catch (IOException ex) {
+                logger.warn("Unable to read plugin archive hashes from {}, every plugin will be reinstalled: {}", file,
+                        ex.getLocalizedMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns if the given hash is the hash of the archive last installed from the given location.
+     */
+    boolean matches(String archiveLocation, String hash) {
+        return hash.equals(hashes.get(archiveLocation));
+    }
+
+    void put(String archiveLocation, String hash) {
+        hashes.put(archiveLocation, hash);
+        save();
+    }
+
+    void remove(String archiveLocation) {
+        if (hashes.remove(archiveLocation) != null) {
+            save();
+        }
+    }
+
+    private synchronized void save() {
+        if (file == null) {
+            return;
+        }
+        Properties properties = new Properties();
+        properties.putAll(hashes);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                properties.store(out, "Content hashes of installed plugin archives");
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            logger.warn("Unable to write plugin archive hashes to {}: {}", file, ex.getLocalizedMessage());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package io.github.thisisnozaku.charactercreator.plugins.internal;
+
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+
+/**
+ * A plugin resource which keeps a lease on the registry entry it came from until its content has been read, so the
+ * bundle revision behind it isn't uninstalled while it is still being served.
+ * <p>
+ * The lease is released when a stream opened from the resource is closed.
+ */
+class LeasedResource extends AbstractResource {
+    private final Resource resource;
+    private final PluginRegistry.Lease lease;
+
+    LeasedResource(Resource resource, PluginRegistry.Lease lease) {
+        this.resource = resource;
+        this.lease = lease;
+    }
+
+    /**
+     * Wraps the given stream so closing it releases the given lease.
+     */
+    static InputStream releasingOnClose(InputStream in, PluginRegistry.Lease lease) {
+        return new FilterInputStream(in) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    lease.close();
+                }
+            }
+        };
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        try {
+            return releasingOnClose(resource.getInputStream(), lease);
+        } catch (IOException | RuntimeException ex) {
+            lease.close();
+            throw ex;
+        }
+    }
+
+    @Override
+    public boolean exists() {
+        return resource.exists();
+    }
+
+    @Override
+    public boolean isReadable() {
+        return resource.isReadable();
+    }
+
+    @Override
+    public URL getURL() throws IOException {
+        return resource.getURL();
+    }
+
+    @Override
+    public URI getURI() throws IOException {
+        return resource.getURI();
+    }
+
+    @Override
+    public File getFile() throws IOException {
+        return resource.getFile();
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        return resource.contentLength();
+    }
+
+    @Override
+    public long lastModified() throws IOException {
+        return resource.lastModified();
+    }
+
+    @Override
+    public String getFilename() {
+        return resource.getFilename();
+    }
+
+    @Override
+    public String getDescription() {
+        return resource.getDescription();
+    }
+}
@@ -0,0 +1,152 @@
+package io.github.thisisnozaku.charactercreator.plugins.internal;
+
+import com.google.common.collect.ImmutableSet;
+import io.github.thisisnozaku.charactercreator.plugins.PluginDescription;
+import org.osgi.framework.Bundle;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Decides when plugin bundles are started and stopped.
+ * <p>
+ * In eager mode every bundle is started as soon as it is installed. In lazy mode bundles are only installed, leaving
+ * them dormant until the first request for their plugin, and plugins that have not been used for the idle timeout are
+ * stopped again. Pinned plugins are always started eagerly and never stopped for being idle.
+ */
+class PluginActivator {
+    private final boolean lazy;
+    private final long idleTimeoutMillis;
+    private final Set<PluginDescription> pinned;
+    private final ConcurrentMap<PluginDescription, Bundle> dormant = new ConcurrentHashMap<>();
+    private final ConcurrentMap<PluginDescription, CompletableFuture<Void>> activations = new ConcurrentHashMap<>();
+
+    PluginActivator(boolean lazy, long idleTimeoutMillis, Collection<PluginDescription> pinned) {
+        this.lazy = lazy;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.pinned = ImmutableSet.copyOf(pinned);
+    }
+
+    /**
+     * Parses a comma separated list of plugins, each written as author/system/version.
+     *
+     * @param plugins the list of plugins
+     * @return the plugin descriptions
+     */
+    static Collection<PluginDescription> parsePluginList(String plugins) {
+        return Arrays.stream(plugins.split(","))
+                .map(String::trim)
+                .filter(plugin -> !plugin.isEmpty())
+                .map(plugin -> {
+                    String[] tokens = plugin.split("/");
+                    if (tokens.length != 3) {
+                        throw new IllegalArgumentException(String.format("Plugin \"%s\" should be written as " +
+                                "author/system/version", plugin));
+                    }
+                    return new PluginDescription(tokens[0], tokens[1], tokens[2]);
+                })
+                .collect(Collectors.toList());
+    }
+
+    boolean isLazy() {
+        return lazy;
+    }
+
+    long getIdleTimeout() {
+        return idleTimeoutMillis;
+    }
+
+    /**
+     * Returns if the given plugin should be started as soon as it is installed.
+     */
+    boolean startsEagerly(PluginDescription pluginDescription) {
+        return !lazy || pinned.contains(pluginDescription);
+    }
+
+    /**
+     * Returns if the given plugin has gone unused for long enough to be stopped.
+     *
+     * @param pluginDescription the plugin
+     * @param lastAccess        when the plugin was last used, in epoch milliseconds
+     * @param now               the current time, in epoch milliseconds
+     */
+    boolean isIdle(PluginDescription pluginDescription, long lastAccess, long now) {
+        return lazy && !pinned.contains(pluginDescription) && now - lastAccess >= idleTimeoutMillis;
+    }
+
+    /**
+     * Records that the given plugin is installed but not started.
+     */
+    void dormant(PluginDescription pluginDescription, Bundle bundle) {
+        dormant.put(pluginDescription, bundle);
+    }
+
+    boolean isDormant(PluginDescription pluginDescription) {
+        return dormant.containsKey(pluginDescription);
+    }
+
+    Optional<Bundle> getDormantBundle(PluginDescription pluginDescription) {
+        return Optional.ofNullable(dormant.get(pluginDescription));
+    }
+
+    Collection<PluginDescription> getDormantPlugins() {
+        return dormant.keySet();
+    }
+
+    /**
+     * Forgets the given bundle, for example because it has been uninstalled.
+     */
+    void removed(Bundle bundle) {
+        dormant.values().removeIf(b -> b.getBundleId() == bundle.getBundleId());
+    }
+
+    /**
+     * Starts the dormant bundle of the given plugin. Concurrent calls for the same plugin share a single start, and a
+     * plugin which becomes dormant again afterwards is started again by the next call.
+     *
+     * @param pluginDescription the plugin
+     * @param starter           starts the bundle, completing once its plugin is registered
+     * @return completes once the plugin is available
+     */
+    CompletableFuture<Void> activate(PluginDescription pluginDescription,
+                                     Function<Bundle, CompletableFuture<Void>> starter) {
+        CompletableFuture<Void> activation = new CompletableFuture<>();
+        CompletableFuture<Void> running = activations.putIfAbsent(pluginDescription, activation);
+        if (running != null) {
+            return running;
+        }
+        Bundle bundle = dormant.get(pluginDescription);
+        if (bundle == null) {
+            activations.remove(pluginDescription, activation);
+            activation.complete(null);
+            return activation;
+        }
+        CompletableFuture<Void> started;
+        try {
+            started = starter.apply(bundle);
+        } catch (RuntimeException ex) {
+            started = new CompletableFuture<>();
+            started.completeExceptionally(ex);
+        }
+        //Attached outside of the map, so a start which has already finished can't modify it while it is being updated.
+        started.whenComplete((v, ex) -> {
+            if (ex == null) {
+                dormant.remove(pluginDescription, bundle);
+            }
+            activations.remove(pluginDescription, activation);
+            if (ex == null) {
+                activation.complete(null);
+            } else {
+                activation.completeExceptionally(ex);
+            }
+        });
+        return activation;
+    }
+}
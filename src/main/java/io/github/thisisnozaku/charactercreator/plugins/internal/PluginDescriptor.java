@@ -0,0 +1,68 @@
+package io.github.thisisnozaku.charactercreator.plugins.internal;
+
+import com.google.common.collect.ImmutableMap;
+import io.github.thisisnozaku.charactercreator.plugins.PluginDescription;
+
+import java.util.Map;
+
+/**
+ * Parsed contents of a plugin description file, either plugin.json or plugin.xml.
+ * <p>
+ * Both formats share the same layout: a "description" object holding the author, system and version of the plugin
+ * plus any further metadata, and a "resources" object mapping resource names to paths inside the bundle.
+ */
+final class PluginDescriptor {
+    private final PluginDescription pluginDescription;
+    private final Map<String, String> resourceMappings;
+    private final Map<String, String> metadata;
+
+    PluginDescriptor(PluginDescription pluginDescription, Map<String, String> resourceMappings,
+                     Map<String, String> metadata) {
+        this.pluginDescription = pluginDescription;
+        this.resourceMappings = ImmutableMap.copyOf(resourceMappings);
+        this.metadata = ImmutableMap.copyOf(metadata);
+    }
+
+    PluginDescription getPluginDescription() {
+        return pluginDescription;
+    }
+
+    String getAuthor() {
+        return pluginDescription.getAuthor();
+    }
+
+    String getSystem() {
+        return pluginDescription.getSystem();
+    }
+
+    String getVersion() {
+        return pluginDescription.getVersion();
+    }
+
+    /**
+     * Mappings from resource names to paths inside the plugin bundle.
+     *
+     * @return the resource mappings
+     */
+    Map<String, String> getResourceMappings() {
+        return resourceMappings;
+    }
+
+    /**
+     * Any entries of the "description" object other than the author, system and version.
+     *
+     * @return the additional metadata
+     */
+    Map<String, String> getMetadata() {
+        return metadata;
+    }
+
+    @Override
+    public String toString() {
+        return "PluginDescriptor{" +
+                "author='" + getAuthor() + '\'' +
+                ", system='" + getSystem() + '\'' +
+                ", version='" + getVersion() + '\'' +
+                '}';
+    }
+}
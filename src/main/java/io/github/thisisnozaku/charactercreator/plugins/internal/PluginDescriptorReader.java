@@ -0,0 +1,135 @@
+package io.github.thisisnozaku.charactercreator.plugins.internal;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import io.github.thisisnozaku.charactercreator.plugins.PluginDescription;
+import org.osgi.framework.Bundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reads the description file of plugin bundles into {@link PluginDescriptor}s.
+ * <p>
+ * plugin.json is preferred over plugin.xml when a bundle contains both. Each file is read and parsed in a single pass
+ * and the result is cached per bundle id and last modified time, so registering the services of an unchanged bundle
+ * again does not parse its description again.
+ */
+class PluginDescriptorReader {
+    static final String JSON_DESCRIPTION_FILE = "plugin.json";
+    static final String XML_DESCRIPTION_FILE = "plugin.xml";
+    private final Logger logger = LoggerFactory.getLogger(PluginDescriptorReader.class);
+    private final ObjectMapper jsonMapper = new ObjectMapper();
+    private final ObjectMapper xmlMapper = new XmlMapper();
+    private final ConcurrentMap<Long, CachedDescriptor> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the descriptor of the given bundle, parsing its description file only if the bundle has changed since it
+     * was last read.
+     *
+     * @param bundle the plugin bundle
+     * @return the descriptor
+     * @throws IOException           if the description file could not be read or is invalid
+     * @throws IllegalStateException if the bundle contains no description file
+     */
+    PluginDescriptor read(Bundle bundle) throws IOException {
+        long lastModified = bundle.getLastModified();
+        CachedDescriptor cached = cache.get(bundle.getBundleId());
+        if (cached != null && cached.lastModified == lastModified) {
+            return cached.descriptor;
+        }
+        PluginDescriptor descriptor = parse(bundle);
+        cache.put(bundle.getBundleId(), new CachedDescriptor(lastModified, descriptor));
+        return descriptor;
+    }
+
+    /**
+     * Discards the cached descriptor of the given bundle.
+     *
+     * @param bundle the bundle
+     */
+    void evict(Bundle bundle) {
+        cache.remove(bundle.getBundleId());
+    }
+
+    private PluginDescriptor parse(Bundle bundle) throws IOException {
+        URL descriptionFile;
+        if ((descriptionFile = bundle.getEntry(JSON_DESCRIPTION_FILE)) != null) {
+            logger.info("Reading plugin.json of {}", bundle.getLocation());
+            try (InputStream in = descriptionFile.openStream()) {
+                return parseJson(in);
+            }
+        }
+        if ((descriptionFile = bundle.getEntry(XML_DESCRIPTION_FILE)) != null) {
+            logger.info("Reading plugin.xml of {}", bundle.getLocation());
+            try (InputStream in = descriptionFile.openStream()) {
+                return parseXml(in);
+            }
+        }
+        throw new IllegalStateException(String.format("While attempting to load the plugin at %s, no " +
+                "plugin description file was found", bundle.getLocation()));
+    }
+
+    PluginDescriptor parseJson(InputStream in) throws IOException {
+        return fromTree(jsonMapper.readTree(in), JSON_DESCRIPTION_FILE);
+    }
+
+    PluginDescriptor parseXml(InputStream in) throws IOException {
+        return fromTree(xmlMapper.readTree(in), XML_DESCRIPTION_FILE);
+    }
+
+    private PluginDescriptor fromTree(JsonNode root, String source) throws IOException {
+        JsonNode description = root.path("description");
+        PluginDescription pluginDescription = new PluginDescription(requiredText(description, "author", source),
+                requiredText(description, "system", source),
+                requiredText(description, "version", source));
+        Map<String, String> metadata = new LinkedHashMap<>();
+        Iterator<Map.Entry<String, JsonNode>> descriptionFields = description.fields();
+        while (descriptionFields.hasNext()) {
+            Map.Entry<String, JsonNode> field = descriptionFields.next();
+            switch (field.getKey()) {
+                case "author":
+                case "system":
+                case "version":
+                    break;
+                default:
+                    metadata.put(field.getKey(), field.getValue().isValueNode() ?
+                            field.getValue().asText() : field.getValue().toString());
+            }
+        }
+        Map<String, String> resourceMappings = new LinkedHashMap<>();
+        Iterator<Map.Entry<String, JsonNode>> resourceFields = root.path("resources").fields();
+        while (resourceFields.hasNext()) {
+            Map.Entry<String, JsonNode> field = resourceFields.next();
+            resourceMappings.put(field.getKey(), field.getValue().asText());
+        }
+        return new PluginDescriptor(pluginDescription, resourceMappings, metadata);
+    }
+
+    private static String requiredText(JsonNode description, String field, String source) throws IOException {
+        JsonNode value = description.get(field);
+        if (value == null || !value.isValueNode()) {
+            throw new IOException(String.format("%s is missing description.%s", source, field));
+        }
+        return value.asText();
+    }
+
+    private static final class CachedDescriptor {
+        private final long lastModified;
+        private final PluginDescriptor descriptor;
+
+        private CachedDescriptor(long lastModified, PluginDescriptor descriptor) {
+            this.lastModified = lastModified;
+            this.descriptor = descriptor;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package io.github.thisisnozaku.charactercreator.plugins.internal;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.github.thisisnozaku.charactercreator.plugins.PluginDescription;
+import io.github.thisisnozaku.charactercreator.plugins.PluginReadiness.State;
+import org.osgi.framework.Bundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Loads plugin bundles on a bounded pool of worker threads, giving up on any single load that takes longer than the
+ * configured timeout, and tracks the state of every load.
+ */
+class PluginLoader {
+    private final Logger logger = LoggerFactory.getLogger(PluginLoader.class);
+    private final ExecutorService workers;
+    private final ScheduledExecutorService timeouts;
+    private final long timeoutMillis;
+    private final ConcurrentMap<String, State> states = new ConcurrentHashMap<>();
+    //Locations whose plugin description is not known yet, any plugin may turn out to be one of them until the time given.
+    private final ConcurrentMap<String, Long> undescribedLocations = new ConcurrentHashMap<>();
+    private final ConcurrentMap<PluginDescription, String> loadingPlugins = new ConcurrentHashMap<>();
+    private volatile boolean discovering = true;
+
+    PluginLoader(int threads, long timeoutMillis) {
+        this.workers = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("plugin-loader-%d").setDaemon(true).build());
+        this.timeouts = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("plugin-loader-timeout").setDaemon(true).build());
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Runs the given task on the worker pool.
+     *
+     * @param task the task
+     */
+    void execute(Runnable task) {
+        workers.execute(task);
+    }
+
+    /**
+     * Runs the given task on the worker pool periodically.
+     *
+     * @param task         the task
+     * @param periodMillis the time between runs
+     */
+    void executePeriodically(Runnable task, long periodMillis) {
+        timeouts.scheduleWithFixedDelay(() -> workers.execute(task), periodMillis, periodMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Fails the given future with a {@link TimeoutException} if it hasn't completed within the loading timeout.
+     *
+     * @param future      the future
+     * @param description what the future is waiting for, used in the exception message
+     * @return the given future
+     */
+    <T> CompletableFuture<T> withTimeout(CompletableFuture<T> future, String description) {
+        return withTimeout(future, timeoutMillis, description);
+    }
+
+    /**
+     * Fails the given future with a {@link TimeoutException} if it hasn't completed within the given timeout.
+     *
+     * @param future        the future
+     * @param timeoutMillis how long to wait for the future
+     * @param description   what the future is waiting for, used in the exception message
+     * @return the given future
+     */
+    <T> CompletableFuture<T> withTimeout(CompletableFuture<T> future, long timeoutMillis, String description) {
+        ScheduledFuture<?> timeout = timeouts.schedule(() -> future.completeExceptionally(new TimeoutException(
+                String.format("%s took longer than %d ms", description, timeoutMillis))), timeoutMillis,
+                TimeUnit.MILLISECONDS);
+        future.whenComplete((value, ex) -> timeout.cancel(false));
+        return future;
+    }
+
+    /**
+     * Queues the load of the bundle at the given location. A load which runs for longer than the timeout once it has
+     * started is reported as failed, but isn't interrupted, so the framework is never left with a half installed
+     * bundle. If it finishes after all, its state is updated.
+     *
+     * @param location the location of the plugin archive
+     * @param load     the task loading the bundle
+     * @return the loaded bundle, or empty if nothing was loaded
+     */
+    CompletableFuture<Optional<Bundle>> submit(String location, Callable<Optional<Bundle>> load) {
+        CompletableFuture<Optional<Bundle>> result = new CompletableFuture<>();
+        CompletableFuture<Optional<Bundle>> tracked = track(location, result);
+        workers.execute(() -> load(location, load, result));
+        return tracked;
+    }
+
+    /**
+     * Loads the bundle at the given location on the calling thread, with the same timeout and state as
+     * {@link #submit(String, Callable)}. Returns once the load has finished, even if it was reported as timed out.
+     *
+     * @param location the location of the plugin archive
+     * @param load     the task loading the bundle
+     */
+    void run(String location, Callable<Optional<Bundle>> load) {
+        CompletableFuture<Optional<Bundle>> result = new CompletableFuture<>();
+        track(location, result);
+        load(location, load, result);
+    }
+
+    //Marks the load as pending until it starts, and as finished once the given result is complete.
+    private CompletableFuture<Optional<Bundle>> track(String location, CompletableFuture<Optional<Bundle>> result) {
+        states.put(location, State.PENDING);
+        undescribedLocations.put(location, System.currentTimeMillis() + timeoutMillis);
+        return result.whenComplete((bundle, ex) -> {
+            if (ex != null) {
+                logger.error("Unable to load plugin at {}: {}", location, ex.getLocalizedMessage());
+            }
+            finished(location, ex == null && bundle.isPresent() ? State.READY : State.FAILED);
+        });
+    }
+
+    private void load(String location, Callable<Optional<Bundle>> load, CompletableFuture<Optional<Bundle>> result) {
+        states.put(location, State.LOADING);
+        undescribedLocations.replace(location, System.currentTimeMillis() + timeoutMillis);
+        ScheduledFuture<?> timeout = timeouts.schedule(() -> {
+            if (result.completeExceptionally(new TimeoutException(String.format(
+                    "Loading %s took longer than %d ms", location, timeoutMillis)))) {
+                logger.warn("Loading {} timed out", location);
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        Optional<Bundle> bundle = Optional.empty();
+        try {
+            bundle = load.call();
+            result.complete(bundle);
+        } catch (Exception ex) {
+            result.completeExceptionally(ex);
+        } finally {
+            timeout.cancel(false);
+        }
+        if (result.isCompletedExceptionally() && bundle.isPresent()) {
+            logger.info("Loading {} finished after timing out", location);
+            finished(location, State.READY);
+        }
+    }
+
+    /**
+     * Records the plugin a location being loaded turned out to contain.
+     *
+     * @param location          the location of the plugin archive
+     * @param pluginDescription the description of the plugin in the archive
+     */
+    synchronized void described(String location, PluginDescription pluginDescription) {
+        if (undescribedLocations.remove(location) != null && !isFinished(location)) {
+            loadingPlugins.put(pluginDescription, location);
+        }
+    }
+
+    /**
+     * Marks that every plugin found at startup has been submitted.
+     */
+    void discoveryComplete() {
+        discovering = false;
+    }
+
+    /**
+     * Returns if the given plugin may still become available: either it is being loaded, or an archive being loaded
+     * hasn't been read far enough to tell which plugin it holds. An archive whose description isn't known within the
+     * timeout stops counting.
+     *
+     * @param pluginDescription the plugin
+     * @return if the plugin may still become available
+     */
+    boolean isLoading(PluginDescription pluginDescription) {
+        if (loadingPlugins.containsKey(pluginDescription)) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        return undescribedLocations.values().stream().anyMatch(deadline -> deadline >= now);
+    }
+
+    boolean isReady() {
+        return !discovering && states.values().stream().allMatch(this::isFinished);
+    }
+
+    Map<String, State> getStates() {
+        return ImmutableMap.copyOf(states);
+    }
+
+    void shutdown() {
+        workers.shutdownNow();
+        timeouts.shutdownNow();
+    }
+
+    private synchronized void finished(String location, State state) {
+        states.put(location, state);
+        undescribedLocations.remove(location);
+        loadingPlugins.values().remove(location);
+    }
+
+    private boolean isFinished(String location) {
+        return isFinished(states.get(location));
+    }
+
+    private boolean isFinished(State state) {
+        return state == State.READY || state == State.FAILED;
+    }
+}
@@ -1,16 +1,18 @@
 package io.github.thisisnozaku.charactercreator.plugins.internal;
 
 import com.google.common.io.Files;
-import com.jayway.jsonpath.JsonPath;
 import io.github.thisisnozaku.charactercreator.data.access.AmazonS3Adapter;
+import io.github.thisisnozaku.charactercreator.data.access.AsyncFileAccessor;
 import io.github.thisisnozaku.charactercreator.data.access.FileAccessor;
 import io.github.thisisnozaku.charactercreator.data.access.FileInformation;
+import io.github.thisisnozaku.charactercreator.exceptions.PluginLoadingException;
 import io.github.thisisnozaku.charactercreator.plugins.*;
 import io.github.thisisnozaku.charactercreator.plugins.Character;
 import io.github.thisisnozaku.charactercreator.plugins.monitors.PluginMonitor;
 import io.github.thisisnozaku.charactercreator.plugins.monitors.PluginMonitorEvent;
 import org.apache.http.client.utils.URIBuilder;
 import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleEvent;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceEvent;
@@ -19,40 +21,112 @@ import org.osgi.framework.launch.FrameworkFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 import org.thymeleaf.TemplateProcessingParameters;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.inject.Inject;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Implementation of PluginManager.
  * Created by Damien on 11/27/2015.
  */
 @Service("pluginManager")
-class PluginManagerImpl implements PluginManager<GamePlugin<Character>>, PluginThymeleafResourceResolver {
-    private final Map<PluginDescription, PluginWrapper> plugins = new HashMap<>();
-    private final Map<PluginDescription, Bundle> pluginBundles = new HashMap<>();
+class PluginManagerImpl implements PluginManager<GamePlugin<Character>>, PluginThymeleafResourceResolver, PluginReadiness,
+        PluginResourceProvider {
+    //Appended to the archive location to give each staged revision of a plugin a unique bundle location.
+    private static final String REVISION_SEPARATOR = "#revision-";
+    //Names the request destruction callbacks which release the leases taken by a request.
+    private static final String LEASE_CALLBACK_PREFIX = PluginManagerImpl.class.getName() + ".lease.";
+    private final PluginRegistry registry = new PluginRegistry();
+    private final AtomicLong revisions = new AtomicLong(System.currentTimeMillis());
+    private final AtomicLong leases = new AtomicLong();
+    private final ConcurrentMap<Long, CompletableFuture<Void>> pendingRegistrations = new ConcurrentHashMap<>();
+    private final PluginDescriptorReader descriptorReader = new PluginDescriptorReader();
+    //Resource indexes built on the loader when a bundle is installed, by bundle id, ready for its service to register.
+    private final ConcurrentMap<Long, PluginResourceIndex> resourceIndexes = new ConcurrentHashMap<>();
+    //Records the content hashes of installed archives inside persistent framework storage.
+    private static final String ARCHIVE_HASHES_FILE = "plugin-archives.properties";
+    private ArchiveHashStore archiveHashes;
     private Framework framework;
+    private Path frameworkStorage;
     private final Logger logger = LoggerFactory.getLogger(PluginManagerImpl.class);
     @SuppressWarnings({"CanBeFinal", "unused"})
     @Value("${plugins.path}")
     private String pluginPath;
     @SuppressWarnings({"CanBeFinal", "unused"})
+    @Value("${plugins.storage:}")
+    private String storagePath;
+    @SuppressWarnings({"CanBeFinal", "unused"})
+    @Value("${plugins.loader.threads:4}")
+    private int loaderThreads;
+    @SuppressWarnings({"CanBeFinal", "unused"})
+    @Value("${plugins.loader.timeout:120000}")
+    private long loaderTimeout;
+    private PluginLoader loader;
+    @SuppressWarnings({"CanBeFinal", "unused"})
+    @Value("${plugins.resourceCache.maxBytes:67108864}")
+    private long resourceCacheMaxBytes;
+    @SuppressWarnings({"CanBeFinal", "unused"})
+    @Value("${plugins.resourceCache.maxEntryBytes:1048576}")
+    private long resourceCacheMaxEntryBytes;
+    private PluginResourceCache resourceCache;
+    //Large resources are served from files extracted into this directory of the framework storage.
+    private static final String EXTRACTED_RESOURCES_DIRECTORY = "plugin-resources";
+    private PluginResourceExtractor resourceExtractor;
+    @SuppressWarnings({"CanBeFinal", "unused"})
+    @Value("${plugins.swap.drainTimeout:10000}")
+    private long drainTimeout;
+    @SuppressWarnings({"CanBeFinal", "unused"})
+    @Value("${plugins.activation.lazy:false}")
+    private boolean lazyActivation;
+    @SuppressWarnings({"CanBeFinal", "unused"})
+    @Value("${plugins.activation.idleTimeout:1800000}")
+    private long idleTimeout;
+    @SuppressWarnings({"CanBeFinal", "unused"})
+    @Value("${plugins.activation.requestWait:5000}")
+    private long activationRequestWait;
+    @SuppressWarnings({"CanBeFinal", "unused"})
+    @Value("${plugins.activation.pinned:}")
+    private String pinnedPlugins;
+    private PluginActivator activator;
+    @SuppressWarnings({"CanBeFinal", "unused"})
+    @Value("${plugins.pollingWait:0}")
+    private long pollingWait;
+    private PluginReconciler reconciler;
+    @SuppressWarnings({"CanBeFinal", "unused"})
     @Inject
     private FileAccessor fileAccess;
     @SuppressWarnings({"CanBeFinal", "unused"})
     @Inject
+    private AsyncFileAccessor asyncFileAccess;
+    @SuppressWarnings({"CanBeFinal", "unused"})
+    @Inject
     private PluginMonitor pluginMonitor;
 
     @SuppressWarnings("unused")
@@ -60,18 +134,25 @@ class PluginManagerImpl implements PluginManager<GamePlugin<Character>>, PluginT
     private void init() {
         logger.info("Starting Plugin manager");
         logger.info("Using {} as file accessor", fileAccess.getClass().getName());
+        loader = new PluginLoader(loaderThreads, loaderTimeout);
+        resourceCache = new PluginResourceCache(resourceCacheMaxBytes, resourceCacheMaxEntryBytes);
+        activator = new PluginActivator(lazyActivation, idleTimeout, PluginActivator.parsePluginList(pinnedPlugins));
         try {
-            ResourceBundle configResource = ResourceBundle.getBundle("config");
-            Map<String, String> config = new HashMap<>();
-            config.put(Constants.FRAMEWORK_STORAGE_CLEAN, Constants.FRAMEWORK_STORAGE_CLEAN_ONFIRSTINIT);
-            config.put(Constants.FRAMEWORK_SYSTEMPACKAGES_EXTRA, "io.github.thisisnozaku.charactercreator.plugins; version=1.0");
-            config.put(Constants.FRAMEWORK_STORAGE, Files.createTempDir().getAbsolutePath());
-            for (String key : configResource.keySet()) {
-                config.put(key, configResource.getString(key));
+            boolean persistent = !storagePath.isEmpty();
+            if (!persistent) {
+                frameworkStorage = Files.createTempDir().toPath();
+                archiveHashes = new ArchiveHashStore();
+            } else {
+                //Bundles installed by a previous run are kept and reconciled against the archives once started.
+                frameworkStorage = java.nio.file.Files.createDirectories(Paths.get(storagePath));
+                archiveHashes = new ArchiveHashStore(frameworkStorage.resolve(ARCHIVE_HASHES_FILE));
+                logger.info("Using persistent plugin storage at {}", frameworkStorage);
             }
             FrameworkFactory fmwkFactory = new org.apache.felix.framework.FrameworkFactory();
-            framework = fmwkFactory.newFramework(config);
+            framework = fmwkFactory.newFramework(frameworkConfig(ResourceBundle.getBundle("config"), frameworkStorage,
+                    persistent));
             framework.init();
+            resourceExtractor = new PluginResourceExtractor(frameworkStorage.resolve(EXTRACTED_RESOURCES_DIRECTORY));
 
             framework.getBundleContext().addServiceListener(serviceEvent -> {
                 Object service = framework.getBundleContext().getService(serviceEvent.getServiceReference());
@@ -79,113 +160,122 @@ class PluginManagerImpl implements PluginManager<GamePlugin<Character>>, PluginT
                 if (service instanceof GamePlugin) {
                     logger.info("Getting plugin at {} ready", serviceEvent.getServiceReference().getBundle().getLocation());
                     Bundle serviceBundle = serviceEvent.getServiceReference().getBundle();
-                    //Load plugin.json.
-                    URL pluginDescriptionFile;
-                    PluginDescription pluginDescription = null;
-                    Map<String, String> resourcePaths = new HashMap<>();
-                    if ((pluginDescriptionFile = serviceBundle.getResource("plugin.json")) != null) {
-                        try {
-                            logger.info("Trying to read plugin.json");
-                            String creator = JsonPath.read(pluginDescriptionFile.openStream(),
-                                    "$.description.author");
-                            String game = JsonPath.read(pluginDescriptionFile.openStream(),
-                                    "$.description.system");
-                            String version = JsonPath.read(pluginDescriptionFile.openStream(),
-                                    "$.description.version");
-                            resourcePaths =
-                                    JsonPath.read(pluginDescriptionFile.openStream(),
-                                            "$.resources");
-                            pluginDescription = new PluginDescription(creator, game, version);
-                        } catch (IOException ex) {
-                            logger.error(ex.getLocalizedMessage());
-                        }
-                    }
-                    if (pluginDescriptionFile == null) {
-                        logger.info("Trying to read plugin.xml");
-                        pluginDescriptionFile = serviceBundle.getResource("plugin.xml");
-                    }
-                    if (pluginDescriptionFile == null) {
-                        throw new IllegalStateException(String.format("While attempting to load the plugin at %s, no " +
-                                "plugin description file was found", serviceBundle.getLocation()));
+                    PluginDescriptor descriptor;
+                    try {
+                        descriptor = descriptorReader.read(serviceBundle);
+                    } catch (IOException ex) {
+                        logger.error("Unable to read the plugin description of {}: {}", serviceBundle.getLocation(),
+                                ex.getLocalizedMessage());
+                        return;
                     }
-                    PluginWrapper wrapper = new PluginWrapper(pluginDescription, (GamePlugin) service, this, resourcePaths);
+                    PluginWrapper wrapper = new PluginWrapper(descriptor.getPluginDescription(), (GamePlugin) service, this,
+                            descriptor.getResourceMappings());
                     switch (serviceEvent.getType()) {
                         case ServiceEvent.REGISTERED:
                             logger.info("Game plugin {}-{}-{} registered.", wrapper.getPluginDescription().getAuthor(),
                                     wrapper.getPluginDescription().getSystem(),
                                     wrapper.getPluginDescription().getVersion());
-                            plugins.put(wrapper.getPluginDescription(), wrapper);
-                            pluginBundles.put(wrapper.getPluginDescription(), serviceEvent.getServiceReference().getBundle());
+                            Optional<CompletableFuture<Void>> pendingRegistration =
+                                    Optional.ofNullable(pendingRegistrations.get(serviceBundle.getBundleId()));
+                            //Bundles started by the framework itself are indexed once the loader reuses them.
+                            registry.register(wrapper, serviceBundle, resourceIndexes.getOrDefault(
+                                    serviceBundle.getBundleId(), PluginResourceIndex.empty()));
+                            pendingRegistration.ifPresent(r -> r.complete(null));
                             break;
                         case ServiceEvent.UNREGISTERING:
                             logger.info("Game plugin {}-{}-{} removed.", wrapper.getPluginDescription().getAuthor(),
                                     wrapper.getPluginDescription().getSystem(),
                                     wrapper.getPluginDescription().getVersion());
-                            plugins.remove(wrapper.getPluginDescription());
-                            pluginBundles.remove(wrapper.getPluginDescription());
+                            registry.unregister(wrapper.getPluginDescription(), serviceBundle);
                             break;
                     }
                 }
             });
             framework.getBundleContext().addBundleListener(bundleEvent -> {
                 switch (bundleEvent.getType()) {
-                    case Bundle.STOPPING:
+                    case BundleEvent.UPDATED:
+                        resourceCache.invalidate(bundleEvent.getBundle());
+                        break;
+                    case BundleEvent.UNINSTALLED:
+                        resourceCache.invalidate(bundleEvent.getBundle());
+                        resourceExtractor.invalidate(bundleEvent.getBundle());
+                        descriptorReader.evict(bundleEvent.getBundle());
+                        resourceIndexes.remove(bundleEvent.getBundle().getBundleId());
+                        activator.removed(bundleEvent.getBundle());
                         break;
                 }
             });
+            //Monitor callbacks run on the stripe of their plugin and only return once the work is done, so the events
+            //of one plugin are handled one after the other, and the monitor stops accepting events while they're
+            //behind. Loads are tracked by the loader like those at startup, with the same timeout and state.
             Consumer<PluginMonitorEvent> update = (event) -> {
+                FileInformation info;
                 try {
-                    FileInformation info = fileAccess.getFileInformation(event.getPluginUrl());
-                    URL bundleUrl = new URIBuilder(info.getFileUrl().toExternalForm()).clearParameters().build().toURL();
-                    Bundle b = framework.getBundleContext().getBundle(bundleUrl.toExternalForm());
-                    Optional<Instant> timestamp = info.getLastModifiedTimestamp();
-                    if (timestamp.isPresent() && (b == null || timestamp.get().isAfter(Instant.ofEpochMilli(b.getLastModified())))) {
-                        logger.info("A new plugin found at url {}, loading it.", info.getFileUrl().toExternalForm());
-                        loadBundle(bundleUrl);
-                    } else {
-                        logger.info("Previous plugin found at url {}, skipping loading", info.getFileUrl().toExternalForm());
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
+                    info = asyncFileAccess.getFileInformation(event.getPluginUrl()).join();
+                } catch (CompletionException ex) {
+                    logger.error("Unable to load plugin at {}: {}", event.getPluginUrl(),
+                            ex.getCause().getLocalizedMessage());
+                    return;
                 }
+                loader.run(info.getLocation(), () -> loadBundle(info));
             };
             pluginMonitor.onCreated(update).onModified(update);
             pluginMonitor.onDeleted(event -> {
                 logger.info("Plugin deleted event triggered");
+                String normalizedBundleLocation;
                 try {
-                    FileInformation info = fileAccess.getFileInformation(event.getPluginUrl());
-                    String normalizedBundleLocation = new URIBuilder(info.getFileUrl().toExternalForm()).clearParameters().build().toURL().toExternalForm();
-                    Bundle b = framework.getBundleContext().getBundle(normalizedBundleLocation);
-                    logger.info("Delete for bundle {}", b != null ? b.getSymbolicName() : "unknown plugin");
+                    normalizedBundleLocation = asyncFileAccess.getFileInformation(event.getPluginUrl()).join()
+                            .getLocation();
+                } catch (CompletionException ex) {
+                    logger.error("Unable to remove plugin at {}: {}", event.getPluginUrl(),
+                            ex.getCause().getLocalizedMessage());
+                    return;
+                }
+                archiveHashes.remove(normalizedBundleLocation);
+                Collection<Bundle> bundles = findBundles(normalizedBundleLocation);
+                logger.info("Delete for {} bundles of {}", bundles.size(), normalizedBundleLocation);
+                for (Bundle b : bundles) {
                     try {
-                        if (b != null) {
-                            logger.info("Uninstalling");
-                            b.uninstall();
-                        }
+                        logger.info("Uninstalling {}", b.getLocation());
+                        b.uninstall();
                     } catch (BundleException e) {
-                        e.printStackTrace();
+                        logger.error("Unable to uninstall {}: {}", b.getLocation(), e.getLocalizedMessage());
                     }
-                } catch (Exception e) {
-                    e.printStackTrace();
                 }
             });
             framework.start();
-            logger.info("Looking for plugins in \"{}\"", pluginPath);
-            //Initial attempt to load all bundles.
-            Collection<FileInformation> fileInfo = fileAccess.getAllFileInformation(pluginPath);
-            logger.info("Found {} plugins in \"{}\".", fileInfo.size(), pluginPath);
-            fileInfo.forEach(p -> {
-                logger.info("Loading {}", p.getFileUrl());
+            if (activator.isLazy()) {
+                loader.executePeriodically(this::stopIdlePlugins, Math.max(1000, idleTimeout / 2));
+            }
+            if (pollingWait > 0) {
+                reconciler = new PluginReconciler(pluginMonitor, fileAccess::getPath);
+                loader.executePeriodically(this::reconcile, pollingWait);
+            }
+            //Initial attempt to load all bundles, without holding up the rest of the application.
+            loader.execute(() -> {
                 try {
-                    URL url = new URIBuilder(p.getFileUrl().toExternalForm()).clearParameters().build().toURL();
-                    loadBundle(url);
-                } catch (MalformedURLException ex) {
-                    ex.printStackTrace();
-                } catch (URISyntaxException e) {
-                    e.printStackTrace();
+                    logger.info("Looking for plugins in \"{}\"", pluginPath);
+                    Set<String> archiveLocations = ConcurrentHashMap.newKeySet();
+                    List<CompletableFuture<?>> loads = new ArrayList<>();
+                    try (Stream<FileInformation> fileInfo = fileAccess.streamFileInformation(pluginPath)) {
+                        fileInfo.forEach(p -> {
+                            String location = p.getLocation();
+                            logger.info("Loading {}", location);
+                            archiveLocations.add(location);
+                            loads.add(loader.submit(location, () -> loadBundle(p))
+                                    .thenAccept(b -> b.ifPresent(bundle -> archiveLocations.add(archiveLocation(bundle)))));
+                        });
+                    }
+                    logger.info("Found {} plugins in \"{}\".", loads.size(), pluginPath);
+                    CompletableFuture.allOf(loads.toArray(new CompletableFuture[loads.size()]))
+                            .whenComplete((v, ex) -> removeStaleBundles(archiveLocations));
+                } catch (Exception ex) {
+                    logger.error("Unable to list the plugins in \"{}\": {}", pluginPath, ex.getLocalizedMessage());
+                } finally {
+                    loader.discoveryComplete();
                 }
             });
-        } catch (BundleException ex) {
+        } catch (BundleException | IOException ex) {
             logger.error(ex.getLocalizedMessage());
         }
     }
@@ -193,11 +283,73 @@ class PluginManagerImpl implements PluginManager<GamePlugin<Character>>, PluginT
     @SuppressWarnings("unused")
     @PreDestroy
     private void destroy() {
+        loader.shutdown();
         try {
             framework.stop();
             framework.waitForStop(0);
         } catch (InterruptedException | BundleException e) {
-            e.printStackTrace();
+            logger.error("Unable to stop the plugin framework: {}", e.getLocalizedMessage());
+        }
+        if (storagePath.isEmpty() && frameworkStorage != null) {
+            try (Stream<Path> paths = java.nio.file.Files.walk(frameworkStorage)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            } catch (IOException ex) {
+                logger.warn("Unable to delete plugin storage {}: {}", frameworkStorage, ex.getLocalizedMessage());
+            }
+        }
+    }
+
+    /**
+     * Uninstalls bundles left over from a previous run: those whose archive is gone and older revisions of an archive
+     * which were never retired.
+     *
+     * @param archiveLocations the locations of every archive currently available
+     */
+    private void removeStaleBundles(Set<String> archiveLocations) {
+        Map<String, Optional<Bundle>> newest = new HashMap<>();
+        for (Bundle bundle : framework.getBundleContext().getBundles()) {
+            if (bundle.getBundleId() == Constants.SYSTEM_BUNDLE_ID) {
+                continue;
+            }
+            String location = archiveLocation(bundle);
+            if (!archiveLocations.contains(location)) {
+                logger.info("Archive of {} no longer exists, uninstalling it", bundle.getLocation());
+                archiveHashes.remove(location);
+                uninstall(bundle);
+            } else if (newest.computeIfAbsent(location, this::findBundle).map(b -> b != bundle).orElse(false)) {
+                logger.info("Uninstalling superseded revision {}", bundle.getLocation());
+                uninstall(bundle);
+            }
+        }
+        resourceExtractor.retainOnly(Arrays.asList(framework.getBundleContext().getBundles()));
+    }
+
+    /**
+     * Brings the installed bundles in line with the plugin archives, in case an event from the plugin monitor was lost.
+     */
+    private void reconcile() {
+        //Leave anything still being loaded alone, it's not settled enough to compare.
+        if (!loader.isReady()) {
+            return;
+        }
+        Set<String> installed = Arrays.stream(framework.getBundleContext().getBundles())
+                .filter(b -> b.getBundleId() != Constants.SYSTEM_BUNDLE_ID)
+                .map(PluginManagerImpl::archiveLocation)
+                .collect(Collectors.toSet());
+        try (Stream<FileInformation> archives = fileAccess.streamFileInformation(pluginPath)) {
+            reconciler.reconcile(archives, installed, info -> findBundle(info.getLocation())
+                    .map(bundle -> isUnchanged(info.getLocation(), info.getContentHash(), info, bundle))
+                    .orElse(false));
+        } catch (Exception ex) {
+            logger.warn("Unable to reconcile the plugins in \"{}\": {}", pluginPath, ex.getLocalizedMessage());
+        }
+    }
+
+    private void uninstall(Bundle bundle) {
+        try {
+            bundle.uninstall();
+        } catch (BundleException ex) {
+            logger.error("Unable to uninstall {}: {}", bundle.getLocation(), ex.getLocalizedMessage());
         }
     }
 
@@ -208,43 +360,175 @@ class PluginManagerImpl implements PluginManager<GamePlugin<Character>>, PluginT
 
     @Override
     public Collection<PluginDescription> getAllPluginDescriptions() {
-        return plugins.keySet();
+        if (!activator.isLazy()) {
+            return registry.getDescriptions();
+        }
+        Set<PluginDescription> descriptions = new LinkedHashSet<>(registry.getDescriptions());
+        descriptions.addAll(activator.getDormantPlugins());
+        return Collections.unmodifiableSet(descriptions);
     }
 
     @Override
     public Optional<GamePlugin<Character>> getPlugin(PluginDescription pluginDescription) {
-        return Optional.ofNullable(plugins.get(pluginDescription)).map(w -> w.getPlugin());
+        return getEntry(pluginDescription).map(entry -> entry.getWrapper().getPlugin());
     }
 
     @Override
     public Optional<URI> getPluginResource(PluginDescription pluginDescription, String s) {
         try {
             //Find the bundle for the plugin.
-            Bundle pluginBundle = pluginBundles.get(pluginDescription);
-            Optional<PluginWrapper> pluginWrapper = Optional.ofNullable(plugins.get(pluginDescription));
-            if(!pluginWrapper.isPresent()) {
+            Optional<PluginRegistry.Entry> entry = getEntry(pluginDescription);
+            if (!entry.isPresent()) {
                 return Optional.empty();
             }
-            Map<String, String> internalResourceMappings = plugins.get(pluginDescription).getResourceMappings();
-            if (internalResourceMappings.containsKey(s)) {
-                s = internalResourceMappings.get(s);
-            }
-            URL resourceURL = pluginBundle.getEntry(s);
-            if (resourceURL == null) {
-                logger.warn("No url for path {}.", s);
+            Optional<PluginResourceIndex.Entry> resource = entry.get().getResourceIndex().lookup(s);
+            if (!resource.isPresent()) {
+                logger.debug("No resource {} in plugin {}.", s, pluginDescription);
                 return Optional.empty();
             }
             //Extract the resource from the bundle
-            return Optional.of(pluginBundle.getResource(s).toURI());
+            return Optional.of(entry.get().getBundle().getEntry(resource.get().getPath()).toURI());
         } catch (URISyntaxException ex) {
             throw new RuntimeException(ex);
         }
     }
 
+    @Override
+    public Optional<Resource> getResource(PluginDescription pluginDescription, String resourceName) {
+        Optional<PluginRegistry.Entry> entry = getEntry(pluginDescription);
+        if (!entry.isPresent()) {
+            return Optional.empty();
+        }
+        Optional<PluginResourceIndex.Entry> indexEntry = entry.get().getResourceIndex().lookup(resourceName);
+        if (!indexEntry.isPresent()) {
+            logger.debug("No resource {} in plugin {}.", resourceName, pluginDescription);
+            return Optional.empty();
+        }
+        String path = indexEntry.get().getPath();
+        Optional<PluginRegistry.Lease> lease = leaseOutsideRequest(entry.get());
+        try {
+            Optional<Resource> resource = indexEntry.get().getSize() > resourceCacheMaxEntryBytes ?
+                    resourceExtractor.get(entry.get().getBundle(), path) :
+                    resourceCache.get(path, entry.get().getBundle(), indexEntry.get().getSize());
+            if (!resource.isPresent() || !lease.isPresent()) {
+                lease.ifPresent(PluginRegistry.Lease::close);
+                return resource;
+            }
+            return Optional.of(new LeasedResource(resource.get(), lease.get()));
+        } catch (IOException ex) {
+            lease.ifPresent(PluginRegistry.Lease::close);
+            logger.error("Unable to read {} from plugin {}: {}", path, pluginDescription, ex.getLocalizedMessage());
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public Optional<PluginResourceIndex> getResourceIndex(PluginDescription pluginDescription) {
+        return getEntry(pluginDescription).map(PluginRegistry.Entry::getResourceIndex);
+    }
+
+    @Override
+    public Map<String, Long> getCacheStatistics() {
+        return resourceCache.getStatistics();
+    }
+
+    @Override
+    public Map<String, State> getPluginStates() {
+        return loader.getStates();
+    }
+
+    @Override
+    public boolean isReady() {
+        return loader.isReady();
+    }
+
+    @Override
+    public boolean isLoading(PluginDescription pluginDescription) {
+        return !registry.get(pluginDescription).isPresent() && loader.isLoading(pluginDescription);
+    }
+
+    /**
+     * Returns the registry entry for the given plugin.
+     *
+     * Starts the plugin first if it is installed but not started, waiting for it up to the activation request wait.
+     *
+     * @throws PluginLoadingException if the plugin is not available but may be once loading finishes
+     */
+    private Optional<PluginRegistry.Entry> getEntry(PluginDescription pluginDescription) {
+        Optional<PluginRegistry.Entry> entry = registry.get(pluginDescription);
+        if (!entry.isPresent() && activator.isDormant(pluginDescription)) {
+            logger.info("Activating plugin {} on first use", pluginDescription);
+            try {
+                activator.activate(pluginDescription, this::startBundle)
+                        .get(activationRequestWait, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ex) {
+                throw new PluginLoadingException(pluginDescription);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new PluginLoadingException(pluginDescription);
+            } catch (ExecutionException ex) {
+                logger.error("Unable to activate plugin {}: {}", pluginDescription, ex.getCause().getLocalizedMessage());
+                return Optional.empty();
+            }
+            entry = registry.get(pluginDescription);
+        }
+        if (!entry.isPresent() && loader.isLoading(pluginDescription)) {
+            throw new PluginLoadingException(pluginDescription);
+        }
+        entry.ifPresent(e -> {
+            e.touch();
+            leaseForRequest(e);
+        });
+        return entry;
+    }
+
+    /**
+     * Starts a dormant bundle on the loader pool.
+     *
+     * @param bundle the bundle
+     * @return completes once the plugin of the bundle is registered, or fails if that takes too long
+     */
+    private CompletableFuture<Void> startBundle(Bundle bundle) {
+        CompletableFuture<Void> registration = new CompletableFuture<>();
+        pendingRegistrations.put(bundle.getBundleId(), registration);
+        loader.execute(() -> {
+            try {
+                //Transient, so lazily started bundles are dormant again after a restart.
+                bundle.start(Bundle.START_TRANSIENT);
+            } catch (BundleException ex) {
+                registration.completeExceptionally(ex);
+            }
+        });
+        return loader.withTimeout(registration, "Starting " + bundle.getLocation())
+                .whenComplete((v, ex) -> pendingRegistrations.remove(bundle.getBundleId(), registration));
+    }
+
+    /**
+     * Stops the bundles of plugins which haven't been used within the idle timeout, leaving them installed so they can
+     * be started again by the next request for them.
+     */
+    private void stopIdlePlugins() {
+        long now = System.currentTimeMillis();
+        for (PluginRegistry.Entry entry : registry.getEntries()) {
+            PluginDescription pluginDescription = entry.getWrapper().getPluginDescription();
+            if (entry.getInFlight() > 0 || !activator.isIdle(pluginDescription, entry.getLastAccess(), now)) {
+                continue;
+            }
+            logger.info("Plugin {} unused for {} ms, stopping it", pluginDescription, now - entry.getLastAccess());
+            activator.dormant(pluginDescription, entry.getBundle());
+            try {
+                entry.getBundle().stop(Bundle.STOP_TRANSIENT);
+            } catch (BundleException ex) {
+                logger.error("Unable to stop idle plugin {}: {}", pluginDescription, ex.getLocalizedMessage());
+            }
+        }
+    }
+
     @Override
     public Optional<URI> getPluginArchive(PluginDescription pluginDescription) {
-        return Optional.ofNullable(pluginBundles.get(pluginDescription))
-                .map(pluginBundle -> pluginBundle.getLocation())
+        Optional<Bundle> bundle = registry.get(pluginDescription).map(PluginRegistry.Entry::getBundle);
+        return (bundle.isPresent() ? bundle : activator.getDormantBundle(pluginDescription))
+                .map(PluginManagerImpl::archiveLocation)
                 .map(location -> {
                     try {
                         return new URIBuilder(location).build();
@@ -254,31 +538,62 @@ class PluginManagerImpl implements PluginManager<GamePlugin<Character>>, PluginT
                 });
     }
 
-    private Optional<Bundle> loadBundle(URL path) {
+    /**
+     * Installs the plugin archive described by the given information, or replaces the bundle previously installed from
+     * it. Archives whose content hasn't changed since they were last installed are not downloaded again.
+     *
+     * @param info the plugin archive
+     * @return the bundle installed from the archive, or empty if nothing could be installed
+     */
+    private Optional<Bundle> loadBundle(FileInformation info) {
         try {
-            FileInformation info = fileAccess.getFileInformation(path);
-            Optional<InputStream> in = fileAccess.getContent(info);
+            String standardUrl = info.getLocation();
+            Optional<Bundle> current = findBundle(standardUrl);
+            //A new archive is hashed while it is installed instead of being read an extra time up front.
+            Optional<String> hash = current.isPresent() ? info.getContentHash() : Optional.empty();
+            if (current.isPresent() && isUnchanged(standardUrl, hash, info, current.get())) {
+                logger.info("Previous plugin found at url {}, skipping loading", standardUrl);
+                reuseBundle(standardUrl, current.get());
+                return current;
+            }
+            AtomicReference<String> installedHash = new AtomicReference<>(hash.orElse(null));
+            Optional<InputStream> in = fileAccess.getContent(info)
+                    .map(content -> info.hashingContent(content, installedHash::set));
             if (in.isPresent()) {
+                logger.info("A new plugin found at url {}, loading it.", standardUrl);
                 InputStream inStream = in.get();
-                String standardUrl = new URIBuilder(info.getFileUrl().toExternalForm()).clearParameters().build().toURL().toExternalForm();
-                Bundle bundle = framework.getBundleContext().getBundle(standardUrl);
-                if (bundle != null) {
-                    logger.info("Bundle already exists, updating");
-                    bundle.update(inStream);
+                Bundle bundle;
+                if (current.isPresent()) {
+                    logger.info("Bundle already exists, staging the new revision");
+                    bundle = swapBundle(current.get(), standardUrl, inStream);
                 } else {
                     logger.info("New bundle, installing");
                     bundle = framework.getBundleContext().installBundle(standardUrl, inStream);
-                    logger.info("Starting bundle");
-                    bundle.start();
+                    PluginDescriptor descriptor = descriptorReader.read(bundle);
+                    PluginDescription pluginDescription = descriptor.getPluginDescription();
+                    loader.described(standardUrl, pluginDescription);
+                    indexResources(bundle, descriptor);
+                    if (activator.startsEagerly(pluginDescription)) {
+                        logger.info("Starting bundle");
+                        bundle.start();
+                    } else {
+                        logger.info("Leaving bundle dormant until plugin {} is requested", pluginDescription);
+                        activator.dormant(pluginDescription, bundle);
+                    }
+                }
+                if (!current.isPresent() || bundle != current.get()) {
+                    Optional<String> installed = Optional.ofNullable(installedHash.get());
+                    (installed.isPresent() ? installed : info.getContentHash())
+                            .ifPresent(h -> archiveHashes.put(standardUrl, h));
                 }
                 logger.info("Bundle loaded");
                 return Optional.of(bundle);
             } else {
-                logger.debug("Tried to get stream for {} but it wasn't found.", path.toString());
+                logger.debug("Tried to get stream for {} but it wasn't found.", standardUrl);
                 return Optional.empty();
             }
         } catch (BundleException ex) {
-             ex.printStackTrace();
+            logger.error("Unable to load plugin bundle from {}: {}", info.getLocation(), ex.getLocalizedMessage());
             return Optional.empty();
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -286,6 +601,169 @@ class PluginManagerImpl implements PluginManager<GamePlugin<Character>>, PluginT
 
     }
 
+    /**
+     * Brings an unchanged bundle, possibly installed by a previous run, into the state the activation mode expects:
+     * started if the plugin starts eagerly and dormant otherwise.
+     */
+    private void reuseBundle(String archiveLocation, Bundle bundle) throws IOException, BundleException {
+        PluginDescriptor descriptor = descriptorReader.read(bundle);
+        PluginDescription pluginDescription = descriptor.getPluginDescription();
+        loader.described(archiveLocation, pluginDescription);
+        if (!resourceIndexes.containsKey(bundle.getBundleId())) {
+            PluginResourceIndex resourceIndex = indexResources(bundle, descriptor);
+            //A plugin started by the framework itself was registered before its resources were indexed.
+            registry.getEntries(bundle).forEach(entry -> registry.register(entry.getWrapper(), bundle, resourceIndex));
+        }
+        if (bundle.getState() == Bundle.ACTIVE || bundle.getState() == Bundle.STARTING) {
+            return;
+        }
+        if (activator.startsEagerly(pluginDescription)) {
+            logger.info("Starting bundle");
+            bundle.start();
+        } else {
+            activator.dormant(pluginDescription, bundle);
+        }
+    }
+
+    /**
+     * Indexes the resources of the given bundle, so its plugin is ready to serve them as soon as its service registers.
+     * A bundle whose entries can't all be read gets an empty index, so its plugin is still served without resources.
+     * Resources too large for the resource cache are extracted along the way.
+     *
+     * @return the index of the bundle
+     */
+    private PluginResourceIndex indexResources(Bundle bundle, PluginDescriptor descriptor) {
+        PluginResourceIndex resourceIndex;
+        try {
+            resourceIndex = PluginResourceIndex.build(bundle, descriptor.getResourceMappings());
+        } catch (IOException ex) {
+            logger.error("Unable to index the resources of {}, serving it without resources: {}", bundle.getLocation(),
+                    ex.getLocalizedMessage());
+            resourceIndex = PluginResourceIndex.empty();
+        }
+        resourceExtractor.extract(bundle, resourceIndex.getResourceNames().stream()
+                .map(resourceIndex::lookup)
+                .map(Optional::get)
+                .filter(entry -> entry.getSize() > resourceCacheMaxEntryBytes)
+                .map(PluginResourceIndex.Entry::getPath)
+                .collect(Collectors.toSet()));
+        resourceIndexes.put(bundle.getBundleId(), resourceIndex);
+        return resourceIndex;
+    }
+
+    /**
+     * Returns if the archive at the given location has the same content as the bundle installed from it. The content
+     * hash is used when available, falling back to comparing the archive and bundle timestamps.
+     */
+    private boolean isUnchanged(String archiveLocation, Optional<String> hash, FileInformation info, Bundle current) {
+        if (hash.isPresent()) {
+            return archiveHashes.matches(archiveLocation, hash.get());
+        }
+        Optional<Instant> timestamp = info.getLastModifiedTimestamp();
+        return !timestamp.isPresent() || !timestamp.get().isAfter(Instant.ofEpochMilli(current.getLastModified()));
+    }
+
+    /**
+     * Replaces a bundle with a new revision of it without disrupting requests.
+     * <p>
+     * The new revision is installed next to the current one and its plugin replaces the current one in the registry
+     * only once its service has registered and its resources are indexed. The current revision is then uninstalled in
+     * the background once the requests holding a lease on it have finished, or the drain timeout has passed. If the new revision fails to register
+     * in time it is uninstalled and the current revision stays in place. A dormant current revision is simply replaced
+     * by a dormant new revision, unless the plugin should be started eagerly.
+     *
+     * @param current         the bundle currently installed for the archive
+     * @param archiveLocation the location of the plugin archive
+     * @param content         the content of the new revision
+     * @return the bundle serving the plugin afterwards
+     */
+    private Bundle swapBundle(Bundle current, String archiveLocation, InputStream content) throws BundleException,
+            InterruptedException {
+        Collection<PluginRegistry.Entry> retiring = registry.getEntries(current);
+        Bundle staged = framework.getBundleContext().installBundle(
+                archiveLocation + REVISION_SEPARATOR + revisions.incrementAndGet(), content);
+        CompletableFuture<Void> registration = new CompletableFuture<>();
+        pendingRegistrations.put(staged.getBundleId(), registration);
+        try {
+            PluginDescriptor descriptor = descriptorReader.read(staged);
+            PluginDescription pluginDescription = descriptor.getPluginDescription();
+            indexResources(staged, descriptor);
+            if (current.getState() != Bundle.ACTIVE && !activator.startsEagerly(pluginDescription)) {
+                logger.info("Replacing dormant {} with dormant {}", current.getLocation(), staged.getLocation());
+                current.uninstall();
+                activator.dormant(pluginDescription, staged);
+                return staged;
+            }
+            staged.start();
+            registration.get(loaderTimeout, TimeUnit.MILLISECONDS);
+        } catch (IOException | BundleException | ExecutionException | TimeoutException ex) {
+            logger.error("New revision of {} didn't become ready, keeping the current revision: {}", archiveLocation,
+                    ex.getLocalizedMessage());
+            staged.uninstall();
+            return current;
+        } finally {
+            pendingRegistrations.remove(staged.getBundleId());
+        }
+        logger.info("New revision of {} is serving requests, retiring {}", archiveLocation, current.getLocation());
+        CompletableFuture<Void> drained = CompletableFuture.allOf(retiring.stream()
+                .map(PluginRegistry.Entry::retire)
+                .toArray(CompletableFuture[]::new));
+        loader.withTimeout(drained, drainTimeout, "Draining " + current.getLocation())
+                .whenCompleteAsync((v, ex) -> {
+                    if (ex != null) {
+                        logger.warn("Requests still using {}, uninstalling it anyway", current.getLocation());
+                    }
+                    uninstall(current);
+                }, loader::execute);
+        return staged;
+    }
+
+    /**
+     * Returns the newest bundle installed from the given plugin archive.
+     */
+    private Optional<Bundle> findBundle(String archiveLocation) {
+        return findBundles(archiveLocation).stream().max(Comparator.comparingLong(Bundle::getBundleId));
+    }
+
+    /**
+     * Returns every bundle installed from the given plugin archive, including revisions being staged or retired.
+     */
+    private Collection<Bundle> findBundles(String archiveLocation) {
+        return Arrays.stream(framework.getBundleContext().getBundles())
+                .filter(b -> archiveLocation.equals(archiveLocation(b)))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Builds the framework configuration from the given defaults and storage. The storage settings are applied last, so
+     * no default can make the framework clean persistent storage when it starts.
+     *
+     * @param defaults   the default framework properties
+     * @param storage    the framework storage directory
+     * @param persistent whether the storage should be kept across restarts
+     * @return the framework configuration
+     */
+    static Map<String, String> frameworkConfig(ResourceBundle defaults, Path storage, boolean persistent) {
+        Map<String, String> config = new HashMap<>();
+        config.put(Constants.FRAMEWORK_SYSTEMPACKAGES_EXTRA, "io.github.thisisnozaku.charactercreator.plugins; version=1.0");
+        for (String key : defaults.keySet()) {
+            config.put(key, defaults.getString(key));
+        }
+        config.put(Constants.FRAMEWORK_STORAGE, storage.toAbsolutePath().toString());
+        if (persistent) {
+            config.remove(Constants.FRAMEWORK_STORAGE_CLEAN);
+        } else {
+            config.put(Constants.FRAMEWORK_STORAGE_CLEAN, Constants.FRAMEWORK_STORAGE_CLEAN_ONFIRSTINIT);
+        }
+        return config;
+    }
+
+    private static String archiveLocation(Bundle bundle) {
+        String location = bundle.getLocation();
+        int revision = location.indexOf(REVISION_SEPARATOR);
+        return revision < 0 ? location : location.substring(0, revision);
+    }
+
     @Override
     public String getName() {
         return "plugin-manager";
@@ -295,16 +773,50 @@ class PluginManagerImpl implements PluginManager<GamePlugin<Character>>, PluginT
     public InputStream getResourceAsStream(TemplateProcessingParameters templateProcessingParameters, String resourceName) {
         String[] pluginNameTokens = resourceName.split("-");
         PluginDescription pluginDescription = new PluginDescription(pluginNameTokens[0], pluginNameTokens[1], pluginNameTokens[2]);
-        Bundle bundle = pluginBundles.get(pluginDescription);
-        Map<String, String> pluginResourceMappings = plugins.get(pluginDescription).getResourceMappings();
-        if (pluginResourceMappings.containsKey(pluginNameTokens[3])) {
-            resourceName = pluginResourceMappings.get(pluginNameTokens[3]);
+        Optional<PluginRegistry.Entry> entry = registry.get(pluginDescription);
+        if (!entry.isPresent()) {
+            logger.warn("Template {} requested for unavailable plugin.", resourceName);
+            return null;
         }
+        resourceName = entry.get().getResourceMappings().getOrDefault(pluginNameTokens[3], resourceName);
+        leaseForRequest(entry.get());
+        Optional<PluginRegistry.Lease> lease = leaseOutsideRequest(entry.get());
         try {
-            return bundle.getResource(resourceName).openStream();
+            Optional<Resource> resource = resourceCache.get(resourceName, entry.get().getBundle(), -1);
+            if (resource.isPresent()) {
+                InputStream in = resource.get().getInputStream();
+                return lease.isPresent() ? LeasedResource.releasingOnClose(in, lease.get()) : in;
+            }
+            lease.ifPresent(PluginRegistry.Lease::close);
+            return null;
         } catch (IOException e) {
-            e.printStackTrace();
+            lease.ifPresent(PluginRegistry.Lease::close);
+            logger.error("Unable to read {} of {}: {}", resourceName, pluginDescription, e.getLocalizedMessage());
             return null;
         }
     }
+
+    /**
+     * Keeps the given entry counted as in use until the current request has completed, so the revision a response
+     * depends on isn't uninstalled before the response is written.
+     *
+     * @return if there is a current request to hold the lease
+     */
+    private boolean leaseForRequest(PluginRegistry.Entry entry) {
+        RequestAttributes request = RequestContextHolder.getRequestAttributes();
+        if (request == null) {
+            return false;
+        }
+        request.registerDestructionCallback(LEASE_CALLBACK_PREFIX + leases.incrementAndGet(), entry.lease()::close,
+                RequestAttributes.SCOPE_REQUEST);
+        return true;
+    }
+
+    /**
+     * Returns a lease on the given entry which the caller has to close, if there is no current request already
+     * holding one.
+     */
+    private Optional<PluginRegistry.Lease> leaseOutsideRequest(PluginRegistry.Entry entry) {
+        return RequestContextHolder.getRequestAttributes() == null ? Optional.of(entry.lease()) : Optional.empty();
+    }
 }
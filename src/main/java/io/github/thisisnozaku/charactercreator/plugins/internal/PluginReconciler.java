@@ -0,0 +1,112 @@
+package io.github.thisisnozaku.charactercreator.plugins.internal;
+
+import io.github.thisisnozaku.charactercreator.data.access.FileInformation;
+import io.github.thisisnozaku.charactercreator.plugins.monitors.PluginMonitor;
+import io.github.thisisnozaku.charactercreator.plugins.monitors.PluginMonitorEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static io.github.thisisnozaku.charactercreator.plugins.monitors.PluginMonitor.EventType.*;
+
+/**
+ * Compares the available plugin archives with the bundles installed from them and hands every difference to the plugin
+ * monitor as an event, making up for events the monitor missed.
+ * <p>
+ * Archives are compared by the metadata in their listing, so unchanged archives are never downloaded, and an archive
+ * whose size and modification time are the same as when it was last found unchanged isn't compared again. A difference
+ * is only reported once: if handling the event doesn't resolve it, it isn't reported again until the archive changes.
+ * <p>
+ * Events carry the path of the archive rather than its location, the same as the events of the monitor itself.
+ */
+class PluginReconciler {
+    private static final Logger logger = LoggerFactory.getLogger(PluginReconciler.class);
+    private static final String DELETED_VERSION = "deleted";
+    private final PluginMonitor monitor;
+    private final Function<String, String> pathOf;
+    //The version of the archive each unresolved difference was last reported for, by location.
+    private final Map<String, String> reported = new HashMap<>();
+    //The size and modification time of each archive the last pass found unchanged, by location.
+    private final Map<String, String> unchanged = new HashMap<>();
+
+    /**
+     * @param monitor the monitor to hand the events to
+     * @param pathOf  turns the location of an archive into the path the monitor's events use for it
+     */
+    PluginReconciler(PluginMonitor monitor, Function<String, String> pathOf) {
+        this.monitor = monitor;
+        this.pathOf = pathOf;
+    }
+
+    /**
+     * Reports the differences between the given archives and installed bundles.
+     *
+     * @param archives    the plugin archives currently available
+     * @param installed   the archive locations of the installed bundles
+     * @param isUnchanged whether the bundle installed from an archive has the archive's current content
+     * @return the number of events reported
+     */
+    synchronized int reconcile(Stream<FileInformation> archives, Set<String> installed,
+                               Predicate<FileInformation> isUnchanged) {
+        //Read the whole listing first, so a listing which fails part way doesn't look like deleted archives.
+        Map<String, FileInformation> available = archives.collect(Collectors.toMap(FileInformation::getLocation,
+                Function.identity(), (first, second) -> first));
+        Map<String, String> differences = new HashMap<>();
+        Map<String, String> stillUnchanged = new HashMap<>();
+        List<PluginMonitorEvent> events = new ArrayList<>();
+        available.forEach((location, archive) -> {
+            boolean isInstalled = installed.contains(location);
+            Optional<String> stamp = stamp(archive);
+            if (isInstalled && stamp.isPresent() && stamp.get().equals(unchanged.get(location))) {
+                stillUnchanged.put(location, stamp.get());
+                return;
+            }
+            if (isInstalled && isUnchanged.test(archive)) {
+                stamp.ifPresent(s -> stillUnchanged.put(location, s));
+                return;
+            }
+            String version = archive.getContentHash().orElseGet(() -> archive.getLastModifiedTimestamp()
+                    .map(Object::toString).orElse(""));
+            differences.put(location, version);
+            if (!version.equals(reported.get(location))) {
+                events.add(new PluginMonitorEvent(isInstalled ? MODIFIED : CREATED, pathOf.apply(location)));
+            }
+        });
+        installed.stream().filter(location -> !available.containsKey(location)).forEach(location -> {
+            differences.put(location, DELETED_VERSION);
+            if (!DELETED_VERSION.equals(reported.get(location))) {
+                events.add(new PluginMonitorEvent(DELETED, pathOf.apply(location)));
+            }
+        });
+        reported.clear();
+        reported.putAll(differences);
+        unchanged.clear();
+        unchanged.putAll(stillUnchanged);
+        if (!events.isEmpty()) {
+            logger.info("Reconciling {} plugins with their archives", events.size());
+        }
+        events.forEach(monitor::handle);
+        return events.size();
+    }
+
+    /**
+     * Returns the size and modification time of the given archive, if its listing has both.
+     */
+    private static Optional<String> stamp(FileInformation archive) {
+        Optional<Long> size = archive.getSize();
+        Optional<Instant> lastModified = archive.getLastModifiedTimestamp();
+        return size.isPresent() && lastModified.isPresent() ?
+                Optional.of(size.get() + "@" + lastModified.get()) : Optional.empty();
+    }
+}
@@ -0,0 +1,208 @@
+package io.github.thisisnozaku.charactercreator.plugins.internal;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.github.thisisnozaku.charactercreator.plugins.PluginDescription;
+import io.github.thisisnozaku.charactercreator.plugins.PluginResourceIndex;
+import io.github.thisisnozaku.charactercreator.plugins.PluginWrapper;
+import org.osgi.framework.Bundle;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Registry of the game plugins that are currently available.
+ * <p>
+ * The registry holds a single immutable snapshot of every plugin, its bundle and its resource mappings. Writers build
+ * a new snapshot and swap it in atomically, so readers only ever need a single volatile read and can never observe a
+ * plugin that is half registered.
+ */
+class PluginRegistry {
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    /**
+     * Returns the registered entry for the given plugin, if there is one.
+     *
+     * @param pluginDescription the description of the plugin
+     * @return the entry for the plugin
+     */
+    Optional<Entry> get(PluginDescription pluginDescription) {
+        return Optional.ofNullable(snapshot.entries.get(pluginDescription));
+    }
+
+    /**
+     * Returns the descriptions of all registered plugins. The returned collection is an immutable copy and is not
+     * affected by later registrations.
+     *
+     * @return the plugin descriptions
+     */
+    Collection<PluginDescription> getDescriptions() {
+        return snapshot.descriptions;
+    }
+
+    /**
+     * Returns every registered entry.
+     *
+     * @return the entries
+     */
+    Collection<Entry> getEntries() {
+        return snapshot.entries.values();
+    }
+
+    /**
+     * Returns every entry provided by the given bundle.
+     *
+     * @param bundle the bundle
+     * @return the entries of the bundle
+     */
+    Collection<Entry> getEntries(Bundle bundle) {
+        return snapshot.entries.values().stream()
+                .filter(entry -> entry.getBundle().getBundleId() == bundle.getBundleId())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Registers the given plugin, replacing any entry previously registered for the same description.
+     *
+     * @param wrapper       the plugin
+     * @param bundle        the bundle the plugin was loaded from
+     * @param resourceIndex the index of the resources in the bundle
+     * @return the new entry
+     */
+    synchronized Entry register(PluginWrapper wrapper, Bundle bundle, PluginResourceIndex resourceIndex) {
+        Entry entry = new Entry(wrapper, bundle, resourceIndex);
+        Map<PluginDescription, Entry> entries = new HashMap<>(snapshot.entries);
+        entries.put(wrapper.getPluginDescription(), entry);
+        snapshot = new Snapshot(entries);
+        return entry;
+    }
+
+    /**
+     * Unregisters the plugin with the given description, if it is still provided by the given bundle. An entry which
+     * has since been replaced by a different bundle is left alone.
+     *
+     * @param pluginDescription the description of the plugin
+     * @param bundle            the bundle the plugin is being removed from
+     * @return the removed entry
+     */
+    synchronized Optional<Entry> unregister(PluginDescription pluginDescription, Bundle bundle) {
+        Entry existing = snapshot.entries.get(pluginDescription);
+        if (existing == null || existing.getBundle().getBundleId() != bundle.getBundleId()) {
+            return Optional.empty();
+        }
+        Map<PluginDescription, Entry> entries = new HashMap<>(snapshot.entries);
+        entries.remove(pluginDescription);
+        snapshot = new Snapshot(entries);
+        return Optional.of(existing);
+    }
+
+    /**
+     * A registered plugin together with the bundle it came from.
+     * <p>
+     * Entries count the requests currently holding a lease on them, so a bundle being replaced can be kept around until
+     * the requests which started before the replacement have finished. They also record when they were last used, so
+     * idle plugins can be stopped.
+     */
+    static final class Entry {
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final CompletableFuture<Void> drained = new CompletableFuture<>();
+        private volatile boolean retired;
+        private volatile long lastAccess = System.currentTimeMillis();
+        private final PluginWrapper wrapper;
+        private final Bundle bundle;
+        private final Map<String, String> resourceMappings;
+        private final PluginResourceIndex resourceIndex;
+
+        private Entry(PluginWrapper wrapper, Bundle bundle, PluginResourceIndex resourceIndex) {
+            this.wrapper = wrapper;
+            this.bundle = bundle;
+            this.resourceIndex = resourceIndex;
+            this.resourceMappings = wrapper.getResourceMappings() != null ?
+                    ImmutableMap.copyOf(wrapper.getResourceMappings()) : ImmutableMap.of();
+        }
+
+        PluginWrapper getWrapper() {
+            return wrapper;
+        }
+
+        Bundle getBundle() {
+            return bundle;
+        }
+
+        Map<String, String> getResourceMappings() {
+            return resourceMappings;
+        }
+
+        PluginResourceIndex getResourceIndex() {
+            return resourceIndex;
+        }
+
+        /**
+         * Counts a request as using this entry until the returned lease is closed.
+         *
+         * @return the lease, which may be closed more than once
+         */
+        Lease lease() {
+            inFlight.incrementAndGet();
+            AtomicBoolean open = new AtomicBoolean(true);
+            return () -> {
+                if (open.compareAndSet(true, false) && inFlight.decrementAndGet() == 0 && retired) {
+                    drained.complete(null);
+                }
+            };
+        }
+
+        /**
+         * Marks this entry as replaced.
+         *
+         * @return completes once no lease on this entry is open anymore
+         */
+        CompletableFuture<Void> retire() {
+            retired = true;
+            if (inFlight.get() == 0) {
+                drained.complete(null);
+            }
+            return drained;
+        }
+
+        int getInFlight() {
+            return inFlight.get();
+        }
+
+        /**
+         * Records that the plugin has just been used.
+         */
+        void touch() {
+            lastAccess = System.currentTimeMillis();
+        }
+
+        long getLastAccess() {
+            return lastAccess;
+        }
+    }
+
+    /**
+     * A request's hold on an entry, released by closing it.
+     */
+    interface Lease extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private static final class Snapshot {
+        private static final Snapshot EMPTY = new Snapshot(ImmutableMap.of());
+        private final Map<PluginDescription, Entry> entries;
+        private final Collection<PluginDescription> descriptions;
+
+        private Snapshot(Map<PluginDescription, Entry> entries) {
+            this.entries = ImmutableMap.copyOf(entries);
+            this.descriptions = ImmutableList.copyOf(this.entries.keySet());
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package io.github.thisisnozaku.charactercreator.plugins.internal;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import org.osgi.framework.Bundle;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.UrlResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Weight-bounded, least recently used cache of the bytes of plugin resources, so frequently requested resources are
+ * served from memory instead of being read out of their bundle for every request.
+ * <p>
+ * Resources larger than the maximum entry size are never cached. Entries are keyed by the bundle they were read from,
+ * so a new revision of a plugin never sees the resources of an older one, and are invalidated when that bundle is
+ * updated or uninstalled.
+ */
+class PluginResourceCache {
+    private final Cache<Key, CachedResource> cache;
+    private final long maximumEntryBytes;
+
+    PluginResourceCache(long maximumBytes, long maximumEntryBytes) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maximumBytes)
+                .<Key, CachedResource>weigher((key, value) -> value.content.length)
+                .recordStats()
+                .build();
+        this.maximumEntryBytes = maximumEntryBytes;
+    }
+
+    /**
+     * Returns the resource at the given path inside the given bundle, reading it from the bundle if it is not already
+     * cached.
+     *
+     * @param path   the path of the resource inside the bundle, after resource mappings are applied
+     * @param bundle the bundle currently providing the plugin
+     * @param size   the size of the resource, or a negative number if it isn't known
+     * @return the resource, or empty if the bundle has no such entry
+     * @throws IOException if the entry could not be read
+     */
+    Optional<Resource> get(String path, Bundle bundle, long size) throws IOException {
+        Key key = new Key(bundle.getBundleId(), path);
+        CachedResource cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        URL entry = bundle.getEntry(path);
+        if (entry == null) {
+            return Optional.empty();
+        }
+        if (size > maximumEntryBytes) {
+            return Optional.of(new UrlResource(entry));
+        }
+        byte[] content;
+        try (InputStream in = entry.openStream()) {
+            content = ByteStreams.toByteArray(size < 0 ? ByteStreams.limit(in, maximumEntryBytes + 1) : in);
+        }
+        if (content.length > maximumEntryBytes) {
+            //Only possible when the size wasn't known, the content read so far is all there is to go on.
+            return Optional.of(new UrlResource(entry));
+        }
+        CachedResource resource = new CachedResource(content, path, bundle.getLastModified());
+        cache.put(key, resource);
+        return Optional.of(resource);
+    }
+
+    /**
+     * Discards every cached resource read from the given bundle.
+     *
+     * @param bundle the bundle
+     */
+    void invalidate(Bundle bundle) {
+        cache.asMap().keySet().removeIf(key -> key.bundleId == bundle.getBundleId());
+    }
+
+    /**
+     * Returns the hit, miss and eviction counts of the cache along with its current size.
+     *
+     * @return the cache statistics
+     */
+    Map<String, Long> getStatistics() {
+        CacheStats stats = cache.stats();
+        return ImmutableMap.of("hits", stats.hitCount(),
+                "misses", stats.missCount(),
+                "evictions", stats.evictionCount(),
+                "entries", cache.size());
+    }
+
+    private static final class Key {
+        private final long bundleId;
+        private final String path;
+
+        private Key(long bundleId, String path) {
+            this.bundleId = bundleId;
+            this.path = path;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return bundleId == key.bundleId && path.equals(key.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(bundleId, path);
+        }
+    }
+
+    /**
+     * In-memory copy of a bundle resource, carrying the file name and modification time Spring needs to set the
+     * content type and caching headers of the response.
+     */
+    private static final class CachedResource extends ByteArrayResource {
+        private final byte[] content;
+        private final String filename;
+        private final long lastModified;
+
+        private CachedResource(byte[] content, String path, long lastModified) {
+            super(content, path);
+            this.content = content;
+            this.filename = path.substring(path.lastIndexOf('/') + 1);
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public String getFilename() {
+            return filename;
+        }
+
+        @Override
+        public long lastModified() {
+            return lastModified;
+        }
+    }
+}
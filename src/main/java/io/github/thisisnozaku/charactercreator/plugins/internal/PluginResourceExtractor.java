@@ -0,0 +1,137 @@
+package io.github.thisisnozaku.charactercreator.plugins.internal;
+
+import org.osgi.framework.Bundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.UrlResource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Extracts plugin resources out of their bundle into a directory per bundle revision, so they can be served straight
+ * from the file system instead of being inflated out of the bundle archive for every request.
+ * <p>
+ * Resources are extracted by the plugin loader when their bundle is installed, so requests never wait on an extraction.
+ * Each file is written under a temporary name and moved into place, so a file which exists is always complete.
+ */
+class PluginResourceExtractor {
+    private final Logger logger = LoggerFactory.getLogger(PluginResourceExtractor.class);
+    private final Path directory;
+
+    PluginResourceExtractor(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    /**
+     * Extracts the resources at the given paths inside the given bundle. Resources already extracted are left alone,
+     * and a resource which can't be extracted is logged and served from the bundle instead.
+     *
+     * @param bundle the bundle
+     * @param paths  the paths of the resources inside the bundle
+     */
+    void extract(Bundle bundle, Collection<String> paths) {
+        Path revision = revisionDirectory(bundle);
+        for (String path : paths) {
+            Path file = revision.resolve(path).normalize();
+            if (!file.startsWith(revision) || Files.exists(file)) {
+                continue;
+            }
+            try {
+                URL entry = bundle.getEntry(path);
+                if (entry == null) {
+                    continue;
+                }
+                Files.createDirectories(file.getParent());
+                Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+                try (InputStream in = entry.openStream()) {
+                    Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+                    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(temp);
+                }
+                logger.debug("Extracted {} of {} to {}", path, bundle.getLocation(), file);
+            } catch (IOException | IllegalStateException ex) {
+                logger.warn("Unable to extract {} of {}, serving it from the bundle: {}", path, bundle.getLocation(),
+                        ex.getLocalizedMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns the extracted copy of the resource at the given path inside the given bundle, or the entry in the bundle
+     * itself if it wasn't extracted.
+     *
+     * @param bundle the bundle
+     * @param path   the path of the resource inside the bundle
+     * @return the resource, or empty if the bundle has no such entry or has been uninstalled
+     */
+    Optional<Resource> get(Bundle bundle, String path) {
+        Path revision = revisionDirectory(bundle);
+        Path file = revision.resolve(path).normalize();
+        if (!file.startsWith(revision)) {
+            return Optional.empty();
+        }
+        if (Files.exists(file)) {
+            return Optional.of(new FileSystemResource(file.toFile()));
+        }
+        try {
+            return Optional.ofNullable(bundle.getEntry(path)).map(UrlResource::new);
+        } catch (IllegalStateException ex) {
+            logger.debug("Bundle {} was uninstalled before {} could be read", bundle.getLocation(), path);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Deletes the resources extracted from the given bundle.
+     *
+     * @param bundle the bundle
+     */
+    void invalidate(Bundle bundle) {
+        delete(revisionDirectory(bundle));
+    }
+
+    /**
+     * Deletes the resources extracted from every bundle except the given ones, such as those left behind by bundles
+     * uninstalled during a previous run.
+     *
+     * @param bundles the bundles still installed
+     */
+    void retainOnly(Collection<Bundle> bundles) {
+        Set<Path> retained = bundles.stream().map(this::revisionDirectory).collect(Collectors.toSet());
+        try (Stream<Path> revisions = Files.list(directory)) {
+            revisions.filter(revision -> !retained.contains(revision)).forEach(this::delete);
+        } catch (IOException ex) {
+            logger.warn("Unable to clean up extracted plugin resources in {}: {}", directory, ex.getLocalizedMessage());
+        }
+    }
+
+    private Path revisionDirectory(Bundle bundle) {
+        return directory.resolve(bundle.getBundleId() + "-" + bundle.getLastModified());
+    }
+
+    private void delete(Path path) {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        } catch (IOException ex) {
+            logger.warn("Unable to delete extracted plugin resources in {}: {}", path, ex.getLocalizedMessage());
+        }
+    }
+}
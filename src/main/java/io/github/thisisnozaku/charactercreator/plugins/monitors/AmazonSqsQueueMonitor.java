@@ -6,8 +6,8 @@ import com.amazonaws.services.s3.event.S3EventNotification;
 import com.amazonaws.services.s3.model.S3Event;
 import com.amazonaws.services.sqs.AmazonSQS;
 import com.amazonaws.services.sqs.model.*;
-import com.fasterxml.jackson.dataformat.xml.XmlMapper;
-import io.github.thisisnozaku.charactercreator.data.access.AmazonS3Adapter;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -16,26 +16,57 @@ import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
-import java.time.Duration;
+import javax.annotation.PreDestroy;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Consumer;
-import java.util.stream.Collectors;
 
 /**
  * Listens for events from one or more Amazon Simple Queue Service queues.
  * Created by Damien on 12/3/2016.
+ * <p>
+ * Every queue is long polled continuously by a number of consumers, each receiving up to 10 messages at a time, and the
+ * messages are handled on a separate pool of workers. A message is deleted, in batches, once the monitor has accepted
+ * the plugin events in it; a message which can't be read is left on the queue and received again once its visibility
+ * timeout expires. Plugins are loaded after the message is deleted, so a load which fails is not retried by the queue,
+ * but by the periodic reconciliation of the plugin manager.
  */
 @Service
 @Profile("aws")
 public class AmazonSqsQueueMonitor extends PluginMonitorAdapter {
     private static final Logger logger = LoggerFactory.getLogger(AmazonSqsQueueMonitor.class);
+    //20 seconds is suggested maximum. http://docs.aws.amazon.com/AWSSimpleQueueService/latest/SQSDeveloperGuide/sqs-long-polling.html
+    private static final int WAIT_TIME_SECONDS = 20;
+    //The most messages a single receive or batch request can carry.
+    private static final int MAX_BATCH = 10;
+    private static final long DELETE_FLUSH_MILLIS = 1000;
     private final AmazonSQS sqsClient;
     private final ScheduledExecutorService executorService;
     private final List<String> monitoredQueueNames;
     private final Region currentRegion;
+    private final List<QueueConsumer> queues = new ArrayList<>();
+    //The periodic deletes of every queue, cancelled when the monitor stops.
+    private final List<ScheduledFuture<?>> deleteFlushes = new ArrayList<>();
+    @SuppressWarnings({"CanBeFinal", "unused"})
+    @Value("${sqs.consumers:2}")
+    private int consumers = 2;
+    @SuppressWarnings({"CanBeFinal", "unused"})
+    @Value("${sqs.workers:8}")
+    private int workers = 8;
+    @SuppressWarnings({"CanBeFinal", "unused"})
+    @Value("${sqs.visibilityTimeout:60}")
+    private int visibilityTimeoutSeconds = 60;
+    private ExecutorService pollers;
+    private ExecutorService workerPool;
+    //Limits how many received messages may wait for a worker, so consumers stop receiving while workers are busy. Every
+    //consumer can reserve a full batch at once, on top of a backlog of two messages per worker.
+    private Semaphore capacity;
+    private volatile boolean running;
 
     public AmazonSqsQueueMonitor(AmazonSQS sqsClient, ScheduledExecutorService executorService, @Value("${sqs.queues}") String... queueNames) {
         this.sqsClient = sqsClient;
@@ -45,59 +76,161 @@ public class AmazonSqsQueueMonitor extends PluginMonitorAdapter {
     }
 
     /**
-     *
+     * Starts the consumers of every queue.
      */
     @PostConstruct
     public void start() {
         logger.info("Begun polling queue for plugin events.");
-        //20 seconds is suggested maximum. http://docs.aws.amazon.com/AWSSimpleQueueService/latest/SQSDeveloperGuide/sqs-long-polling.html
-        Duration pollingInterval = Duration.ofSeconds(20);
-        monitoredQueueNames.stream().forEach(queue -> {
+        running = true;
+        pollers = Executors.newFixedThreadPool(Math.max(1, monitoredQueueNames.size() * consumers),
+                new ThreadFactoryBuilder().setNameFormat("sqs-consumer-%d").setDaemon(true).build());
+        workerPool = Executors.newFixedThreadPool(workers,
+                new ThreadFactoryBuilder().setNameFormat("sqs-worker-%d").setDaemon(true).build());
+        capacity = new Semaphore(monitoredQueueNames.size() * consumers * MAX_BATCH + workers * 2);
+        monitoredQueueNames.forEach(queue -> {
             logger.info(String.format("Starting polling queue %s in region %s.", queue, currentRegion != null ? currentRegion.getName() : currentRegion));
-            final GetQueueUrlResult getQueueResult = sqsClient.getQueueUrl(queue);
-            executorService.scheduleAtFixedRate(() -> {
+            QueueConsumer consumer = new QueueConsumer(queue, sqsClient.getQueueUrl(queue).getQueueUrl());
+            queues.add(consumer);
+            for (int i = 0; i < consumers; i++) {
+                pollers.execute(consumer::poll);
+            }
+            deleteFlushes.add(executorService.scheduleWithFixedDelay(consumer::flushDeletes, DELETE_FLUSH_MILLIS,
+                    DELETE_FLUSH_MILLIS, TimeUnit.MILLISECONDS));
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (pollers != null) {
+            pollers.shutdownNow();
+        }
+        if (workerPool != null) {
+            workerPool.shutdown();
+            try {
+                workerPool.awaitTermination(visibilityTimeoutSeconds, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        //The executor is shared, so only the periodic deletes of this monitor are cancelled before the last flush.
+        deleteFlushes.forEach(flush -> flush.cancel(false));
+        deleteFlushes.clear();
+        queues.forEach(QueueConsumer::flushDeletes);
+    }
+
+    /**
+     * Turns the S3 event notification in the given message into plugin monitor events.
+     */
+    private void process(Message message) {
+        S3EventNotification notification = S3EventNotification.parseJson(message.getBody());
+        Optional.ofNullable(notification.getRecords()).ifPresent(records -> records.forEach(record -> {
+            PluginMonitorEvent event = null;
+            //S3Event has names like "s3:ObjectCreated:Put", but the record event name lacks the leading "s3:"
+            String appendedEventName = "s3:" + record.getEventName();
+            if (S3Event.ObjectCreatedByPut.toString().equals(appendedEventName) ||
+                    S3Event.ObjectCreatedByPost.toString().equals(appendedEventName)) {
+                event = new PluginMonitorEvent(EventType.CREATED, record.getS3().getObject().getKey());
+            } else if (S3Event.ObjectRemovedDelete.toString().equals(appendedEventName)) {
+                event = new PluginMonitorEvent(EventType.DELETED, record.getS3().getObject().getKey());
+            }
+            if (event != null) {
+                handle(event);
+            } else {
+                logger.warn("An S3 event {} wasn't handled", appendedEventName);
+            }
+        }));
+    }
+
+    /**
+     * The consumers of a single queue, along with the messages received from it which haven't been deleted yet.
+     */
+    private class QueueConsumer {
+        private final String name;
+        private final String url;
+        private final Queue<Message> handled = new ConcurrentLinkedQueue<>();
+
+        private QueueConsumer(String name, String url) {
+            this.name = name;
+            this.url = url;
+        }
+
+        /**
+         * Receives messages until the monitor is stopped, handing each one to a worker.
+         */
+        private void poll() {
+            while (running && !Thread.currentThread().isInterrupted()) {
                 try {
-                    ReceiveMessageRequest request = new ReceiveMessageRequest(getQueueResult.getQueueUrl());
-                    request.setWaitTimeSeconds((int) pollingInterval.getSeconds());
-                    Collection<Message> messages = sqsClient.receiveMessage(request).getMessages();
-                    messages.stream().forEach(message -> {
-                        S3EventNotification notification = S3EventNotification.parseJson(message.getBody());
-                        Optional.ofNullable(notification.getRecords()).ifPresent(records -> {
-                                records.stream().forEach(record -> {
-                            PluginMonitorEvent event = null;
-                            //S3Event has names like "s3:ObjectCreated:Put", but the record event name lacks the leading "s3:"
-                            String appendedEventName = "s3:" + record.getEventName();
-                            if (S3Event.ObjectCreatedByPut.toString().equals(appendedEventName) ||
-                                    S3Event.ObjectCreatedByPost.toString().equals(appendedEventName)) {
-                                event = new PluginMonitorEvent(EventType.CREATED, record.getS3().getObject().getKey());
-                            } else if (S3Event.ObjectRemovedDelete.toString().equals(appendedEventName)) {
-                                event = new PluginMonitorEvent(EventType.DELETED, record.getS3().getObject().getKey());
-                            }
-                            if (event != null) {
-                                handle(event);
-                            } else {
-                                logger.warn("An S3 event {} wasn't handled", appendedEventName);
-                            }
-                        });
-                    });
-                    });
-                    List<DeleteMessageBatchRequestEntry> deleteEntries = messages.stream().map(message -> {
-                        return new DeleteMessageBatchRequestEntry(message.getMessageId(), message.getReceiptHandle());
-                    }).collect(Collectors.toList());
-                    //Don't send an empty collection of entries to avoid EmptyBatchException.
-                    if (deleteEntries.size() > 0) {
-                        logger.info("Notifying SQS that {} messages were consumed", messages.size());
-                        sqsClient.deleteMessageBatch(queue, deleteEntries);
+                    //Reserve room for a full batch, and give back what the batch didn't use.
+                    capacity.acquire(MAX_BATCH);
+                    List<Message> messages = Collections.emptyList();
+                    try {
+                        messages = sqsClient.receiveMessage(new ReceiveMessageRequest(url)
+                                .withMaxNumberOfMessages(MAX_BATCH)
+                                .withWaitTimeSeconds(WAIT_TIME_SECONDS)
+                                .withVisibilityTimeout(visibilityTimeoutSeconds)).getMessages();
+                    } finally {
+                        capacity.release(MAX_BATCH - messages.size());
+                    }
+                    if (!messages.isEmpty()) {
+                        logger.debug("Received {} messages from {}", messages.size(), name);
                     }
+                    for (Message message : messages) {
+                        workerPool.execute(() -> handleMessage(message));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 } catch (Exception e) {
-                    e.printStackTrace();
+                    logger.error("Unable to receive messages from {}: {}", name, e.getLocalizedMessage());
+                    try {
+                        Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+                    } catch (InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                    }
                 }
-            }, 0, pollingInterval.getSeconds(), TimeUnit.SECONDS);
-        });
+            }
+        }
+
+        private void handleMessage(Message message) {
+            try {
+                process(message);
+                handled.add(message);
+                if (handled.size() >= MAX_BATCH) {
+                    flushDeletes();
+                }
+            } catch (Exception e) {
+                logger.error("Unable to handle message {} from {}, it will be received again: {}",
+                        message.getMessageId(), name, e.getLocalizedMessage());
+            } finally {
+                capacity.release();
+            }
+        }
+
+        /**
+         * Deletes the handled messages, in batches of up to 10.
+         */
+        private synchronized void flushDeletes() {
+            List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>();
+            Message message;
+            while ((message = handled.poll()) != null) {
+                entries.add(new DeleteMessageBatchRequestEntry(message.getMessageId(), message.getReceiptHandle()));
+            }
+            //Don't send an empty collection of entries to avoid EmptyBatchException.
+            for (List<DeleteMessageBatchRequestEntry> batch : Lists.partition(entries, MAX_BATCH)) {
+                try {
+                    DeleteMessageBatchResult result = sqsClient.deleteMessageBatch(url, batch);
+                    logger.info("Notifying SQS that {} messages were consumed", batch.size() - result.getFailed().size());
+                    result.getFailed().forEach(failure -> logger.warn("Unable to delete message {} from {}: {}",
+                            failure.getId(), name, failure.getMessage()));
+                } catch (Exception e) {
+                    logger.error("Unable to delete {} messages from {}: {}", batch.size(), name, e.getLocalizedMessage());
+                }
+            }
+        }
     }
 
         @Bean
         public static ScheduledExecutorService executorService () {
             return Executors.newScheduledThreadPool(1);
         }
-    }
\ No newline at end of file
+    }
@@ -1,23 +1,21 @@
 package io.github.thisisnozaku.charactercreator.plugins.monitors;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
-import javax.inject.Inject;
+import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.nio.file.*;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
-import java.util.function.Consumer;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 import static java.nio.file.StandardWatchEventKinds.*;
 
@@ -25,102 +23,258 @@ import static java.nio.file.StandardWatchEventKinds.*;
  * Monitors directories on the local file system for changes and executes callbacks upon seeing changes in the watched
  * directories.
  * Created by Damien on 12/1/2016.
+ * <p>
+ * The directories are watched recursively, and a dedicated thread blocks until the file system reports a change, so
+ * an idle monitor costs nothing. Should the file system drop events for a directory, that directory is rescanned and
+ * compared with the files last seen in it to make up for them.
  */
 @Profile("dev")
 @Service
 public class FileSystemMonitor extends PluginMonitorAdapter {
+    private static final Logger logger = LoggerFactory.getLogger(FileSystemMonitor.class);
     private final WatchService watchService;
-    private long pollTime;
-    private ScheduledFuture poll;
-    @Inject
-    private ScheduledExecutorService executor;
-    private Runnable pollingMethod;
-
-    public FileSystemMonitor(ScheduledExecutorService executor, long pollingTime, Collection<String> directories) throws IOException {
-        pollTime = pollingTime;
+    //The directory each key watches.
+    private final Map<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<>();
+    //The last modified time of every file last seen in each watched directory.
+    private final Map<Path, Map<Path, FileTime>> knownFiles = new ConcurrentHashMap<>();
+    //Held while a key's events are handled, so cancelling gracefully only interrupts the loop while it waits.
+    private final Object handling = new Object();
+    private volatile Thread loop;
+
+    public FileSystemMonitor(Collection<String> directories) throws IOException {
         watchService = FileSystems.getDefault().newWatchService();
-        Collection<WatchKey> watchKeys = new LinkedList<>();
-        directories.stream().forEach(d -> {
-            Path path = Paths.get(d);
-            try {
-                if (path.toFile().exists()) {
-                    watchKeys.add(path.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY));
-                }
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+        for (String directory : directories) {
+            Path path = Paths.get(directory);
+            if (path.toFile().exists()) {
+                register(path, false);
             }
-        });
-        this.executor = executor;
-        pollingMethod = () -> {
-            watchKeys.stream().forEach(watchKey -> {
-                Path parentPath = (Path) watchKey.watchable();
-                List<WatchEvent<?>> events = watchKey.pollEvents();
-                if (events.size() > 0) events.stream().forEach(watchEvent -> {
-                    try {
-                        Collection<Consumer<PluginMonitorEvent>> callables = null;
-                        PluginMonitorEvent pluginMonitorEvent = null;
-                        if (watchEvent.kind().equals(StandardWatchEventKinds.ENTRY_CREATE)) {
-                            pluginMonitorEvent = new PluginMonitorEvent(EventType.CREATED, parentPath.resolve(watchEvent.context().toString()).toFile().toURI().toURL().toExternalForm());
-                        } else if (watchEvent.kind().equals(StandardWatchEventKinds.ENTRY_DELETE)) {
-                            pluginMonitorEvent = new PluginMonitorEvent(EventType.DELETED, parentPath.resolve(watchEvent.context().toString()).toFile().toURI().toURL().toExternalForm());
-                        } else if (watchEvent.kind().equals(StandardWatchEventKinds.ENTRY_MODIFY)) {
-                            pluginMonitorEvent = new PluginMonitorEvent(EventType.MODIFIED, parentPath.resolve(watchEvent.context().toString()).toFile().toURI().toURL().toExternalForm());
-                        }
-                        final PluginMonitorEvent pluginEvent = pluginMonitorEvent;
-                        handle(pluginMonitorEvent);
-                        if (callables != null && callables.size() > 0) {
-                            callables.forEach(c -> {
-                                c.accept(pluginEvent);
-                            });
-                        }
-                    } catch (MalformedURLException ex) {
-                        throw new IllegalStateException(ex);
-                    }
-                });
-            });
-        };
+        }
     }
 
-    public FileSystemMonitor(ScheduledExecutorService executor, long pollingTime, String... directories) throws
-            IOException {
-        this(executor, pollingTime, Arrays.asList(directories));
+    public FileSystemMonitor(String... directories) throws IOException {
+        this(Arrays.asList(directories));
     }
 
-    public long getPollTime() {
-        return pollTime;
+    /**
+     * Stops watching for changes. Changes made in the meantime are reported once polling resumes.
+     *
+     * @param immediately whether to interrupt the handling of the current changes instead of letting it finish
+     */
+    public void cancelPolling(boolean immediately) {
+        Thread current;
+        //Not held while waiting for the current changes, whose handling may need the monitor.
+        synchronized (this) {
+            current = loop;
+            loop = null;
+        }
+        if (current == null) {
+            return;
+        }
+        if (immediately) {
+            current.interrupt();
+        } else {
+            synchronized (handling) {
+                current.interrupt();
+            }
+        }
     }
 
-    public void setPollTime(long pollTime) {
-        this.pollTime = pollTime;
+    public synchronized void resumePolling() {
+        if (!isPolling()) {
+            start();
+        }
     }
 
-    public void cancelPolling(boolean immediately) {
-        poll.cancel(immediately);
+    public boolean isPolling() {
+        Thread current = loop;
+        return current != null && current.isAlive();
     }
 
-    public void resumePolling() {
-        if (poll.isCancelled()) {
-            poll = executor.scheduleAtFixedRate(pollingMethod, 0, this.pollTime, TimeUnit.MILLISECONDS);
+    @Bean
+    public static FileSystemMonitor fileSystemMonitor() throws IOException {
+        return new FileSystemMonitor("plugins");
+    }
+
+    @Override
+    @PostConstruct
+    public synchronized void start() {
+        if (loop == null) {
+            Thread thread = new Thread(this::watch, "file-system-monitor");
+            thread.setDaemon(true);
+            loop = thread;
+            thread.start();
         }
     }
 
-    public boolean isPolling() {
-        return !(poll.isCancelled() || poll.isDone());
+    @PreDestroy
+    public void stop() throws IOException {
+        cancelPolling(true);
+        watchService.close();
     }
 
-    @Bean
-    public static FileSystemMonitor fileSystemMonitor(ScheduledExecutorService executorService) throws IOException {
-        return new FileSystemMonitor(executorService, 1000L, "plugins");
+    private void watch() {
+        while (loop == Thread.currentThread()) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            synchronized (handling) {
+                Path directory = watchedDirectories.get(key);
+                try {
+                    if (directory != null) {
+                        key.pollEvents().forEach(event -> handleEvent(directory, event));
+                    }
+                } finally {
+                    //A key which isn't reset never reports anything again.
+                    if (!key.reset()) {
+                        watchedDirectories.remove(key);
+                        if (directory != null) {
+                            forget(directory);
+                        }
+                    }
+                }
+            }
+        }
     }
 
-    @Bean
-    public static ScheduledExecutorService scheduledExecutorService() {
-        return Executors.newSingleThreadScheduledExecutor();
+    private void handleEvent(Path directory, WatchEvent<?> event) {
+        try {
+            if (event.kind().equals(OVERFLOW)) {
+                logger.warn("Events for {} were lost, rescanning it.", directory);
+                rescan(directory);
+                return;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (event.kind().equals(ENTRY_CREATE)) {
+                if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    register(path, true);
+                } else {
+                    known(directory).put(path, lastModified(path));
+                    publish(EventType.CREATED, path);
+                }
+            } else if (event.kind().equals(ENTRY_MODIFY)) {
+                //A directory is modified whenever its children change, which is reported by its own key.
+                if (!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    known(directory).put(path, lastModified(path));
+                    publish(EventType.MODIFIED, path);
+                }
+            } else if (event.kind().equals(ENTRY_DELETE)) {
+                if (knownFiles.containsKey(path)) {
+                    forget(path);
+                } else if (known(directory).remove(path) != null) {
+                    //Anything else was a directory which is already forgotten, or a file which never showed up.
+                    publish(EventType.DELETED, path);
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            logger.error("Unable to handle {} event in {}: {}", event.kind(), directory, ex.getLocalizedMessage());
+        }
     }
 
-    @Override
-    @PostConstruct
-    public void start() {
-        poll = executor.scheduleAtFixedRate(pollingMethod, 0, pollTime, TimeUnit.MILLISECONDS);
+    /**
+     * Watches the given directory and every directory below it.
+     *
+     * @param announce whether the files found are new, and so reported as created
+     */
+    private void register(Path root, boolean announce) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                watchedDirectories.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+                known(dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                known(file.getParent()).put(file, attrs.lastModifiedTime());
+                if (announce) {
+                    publish(EventType.CREATED, file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Compares the given directory with the files last seen in it, and reports the differences.
+     */
+    private void rescan(Path directory) throws IOException {
+        Map<Path, FileTime> known = known(directory);
+        Set<Path> seen = new HashSet<>();
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+            for (Path child : children) {
+                if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                    if (!knownFiles.containsKey(child)) {
+                        register(child, true);
+                    }
+                    continue;
+                }
+                seen.add(child);
+                FileTime modified = lastModified(child);
+                FileTime previous = known.put(child, modified);
+                if (previous == null) {
+                    publish(EventType.CREATED, child);
+                } else if (!previous.equals(modified)) {
+                    publish(EventType.MODIFIED, child);
+                }
+            }
+        }
+        for (Path file : new ArrayList<>(known.keySet())) {
+            if (!seen.contains(file)) {
+                known.remove(file);
+                publish(EventType.DELETED, file);
+            }
+        }
+        for (Path subdirectory : new ArrayList<>(knownFiles.keySet())) {
+            if (directory.equals(subdirectory.getParent()) && !Files.isDirectory(subdirectory, LinkOption.NOFOLLOW_LINKS)) {
+                forget(subdirectory);
+            }
+        }
+    }
+
+    /**
+     * Stops watching the given directory and every directory below it, reporting the files last seen in them as deleted.
+     */
+    private void forget(Path root) {
+        List<Path> directories = knownFiles.keySet().stream()
+                .filter(directory -> directory.startsWith(root))
+                .collect(Collectors.toList());
+        for (Path directory : directories) {
+            Map<Path, FileTime> files = knownFiles.remove(directory);
+            if (files != null) {
+                files.keySet().forEach(file -> publish(EventType.DELETED, file));
+            }
+        }
+        watchedDirectories.entrySet().removeIf(entry -> {
+            if (entry.getValue().startsWith(root)) {
+                entry.getKey().cancel();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    private Map<Path, FileTime> known(Path directory) {
+        return knownFiles.computeIfAbsent(directory, d -> new ConcurrentHashMap<>());
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            //Gone again already, its deletion is reported next.
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private void publish(EventType type, Path path) {
+        try {
+            handle(new PluginMonitorEvent(type, path.toFile().toURI().toURL().toExternalForm()));
+        } catch (MalformedURLException ex) {
+            throw new IllegalStateException(ex);
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,21 +1,74 @@
 package io.github.thisisnozaku.charactercreator.plugins.monitors;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+
+import javax.annotation.PreDestroy;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.EnumMap;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 /**
  * Abstract base class for
  *
  * Created by Damien on 12/3/2016.
+ * <p>
+ * Events are coalesced per plugin URL before the callbacks see them: an event is held back until no other event for
+ * the same URL arrived within the quiet window, and a burst of events collapses into the last one. A modification of a
+ * plugin whose creation is still pending stays a creation, and a deletion replaces a pending creation.
+ * <p>
+ * The callbacks run on a striped executor keyed by plugin URL, so the events of one plugin are handled in order while
+ * the events of different plugins are handled in parallel.
+ * <p>
+ * {@link #handle(PluginMonitorEvent)} returns once the event has been accepted, which is before any callback has seen
+ * it, so a monitor acknowledging its source after handing over an event must not take that as the plugin being loaded.
+ * At most the dispatch queue depth of accepted events are outstanding at once, pending or queued for the callbacks;
+ * beyond that {@code handle} blocks the monitor until the callbacks catch up, instead of queueing without limit.
  */
 abstract public class PluginMonitorAdapter implements PluginMonitor {
+    private static final Logger logger = LoggerFactory.getLogger(PluginMonitorAdapter.class);
     private final EnumMap<EventType, Collection<Consumer<PluginMonitorEvent>>> callbacks = new EnumMap<>(EventType.class);
+    //Events waiting for their quiet window to pass, by plugin URL.
+    private final Map<String, PendingEvent> pending = new HashMap<>();
+    private final ScheduledExecutorService coalescer;
+    //Guards the lazily created dispatcher and permits. A lock of its own, as subclasses synchronize on themselves while
+    //they stop, which may wait for an event being handed over.
+    private final Object lock = new Object();
+    @SuppressWarnings({"CanBeFinal", "unused"})
+    @Value("${plugins.monitor.quietMillis:1000}")
+    private long quietMillis = 1000;
+    @SuppressWarnings({"CanBeFinal", "unused"})
+    @Value("${plugins.monitor.dispatchThreads:4}")
+    private int dispatchThreads = 4;
+    @SuppressWarnings({"CanBeFinal", "unused"})
+    @Value("${plugins.monitor.dispatchQueueDepth:100}")
+    private int dispatchQueueDepth = 100;
+    private StripedExecutor dispatcher;
+    //Permits for the events which have been accepted but not handled by the callbacks yet.
+    private Semaphore outstanding;
 
     public PluginMonitorAdapter() {
-        Arrays.asList(EventType.values()).stream().forEach(v -> callbacks.put(v, new LinkedList<>()));
+        this(Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("plugin-event-coalescer-%d").setDaemon(true).build()));
+    }
+
+    /**
+     * @param coalescer runs the release of the events whose quiet window has passed
+     */
+    PluginMonitorAdapter(ScheduledExecutorService coalescer) {
+        this.coalescer = coalescer;
+        Arrays.asList(EventType.values()).stream().forEach(v -> callbacks.put(v, new CopyOnWriteArrayList<>()));
     }
 
     @Override
@@ -47,9 +100,129 @@ abstract public class PluginMonitorAdapter implements PluginMonitor {
         callbacks.get(type).remove(consumer);
     }
 
+    /**
+     * Hands the given event to the callbacks once the quiet window for its plugin URL has passed, coalesced with any
+     * other events for the same URL arriving in the meantime. Blocks while the maximum number of events is outstanding.
+     *
+     * @param event the plugin event
+     */
     public void handle(PluginMonitorEvent event) {
-        callbacks.get(event.getEventType()).forEach(c -> c.accept(event));
+        //Taken before the lock, so a full adapter doesn't keep the pending events from being released.
+        try {
+            outstanding().acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to handle the event for " +
+                    event.getPluginUrl(), ex);
+        }
+        if (quietMillis <= 0) {
+            dispatch(event);
+            return;
+        }
+        synchronized (pending) {
+            PendingEvent previous = pending.get(event.getPluginUrl());
+            PluginMonitorEvent coalesced = event;
+            if (previous != null) {
+                //The pending event of the URL already holds a permit, which the coalesced event takes over.
+                outstanding.release();
+                previous.dispatch.cancel(false);
+                if (previous.event.getEventType() == EventType.CREATED && event.getEventType() == EventType.MODIFIED) {
+                    coalesced = previous.event;
+                }
+                logger.debug("Coalesced {} event for {} into {}", previous.event.getEventType(),
+                        event.getPluginUrl(), coalesced.getEventType());
+            }
+            PendingEvent next = new PendingEvent(coalesced);
+            next.dispatch = coalescer.schedule(() -> release(next), quietMillis, TimeUnit.MILLISECONDS);
+            pending.put(event.getPluginUrl(), next);
+        }
+    }
+
+    public void setQuietMillis(long quietMillis) {
+        this.quietMillis = quietMillis;
+    }
+
+    public void setDispatchQueueDepth(int dispatchQueueDepth) {
+        this.dispatchQueueDepth = dispatchQueueDepth;
+    }
+
+    private void release(PendingEvent pendingEvent) {
+        synchronized (pending) {
+            //A newer event for the same URL may have taken over while this one was about to be released.
+            if (!pending.remove(pendingEvent.event.getPluginUrl(), pendingEvent)) {
+                return;
+            }
+        }
+        dispatch(pendingEvent.event);
+    }
+
+    /**
+     * Queues the given event on the stripe of its plugin URL, returning its permit once the callbacks have handled it.
+     */
+    private void dispatch(PluginMonitorEvent event) {
+        try {
+            dispatcher().execute(event.getPluginUrl(), () -> {
+                try {
+                    callbacks.get(event.getEventType()).forEach(c -> {
+                        try {
+                            c.accept(event);
+                        } catch (RuntimeException ex) {
+                            logger.error("Handling {} event for {} failed: {}", event.getEventType(),
+                                    event.getPluginUrl(), ex.getLocalizedMessage());
+                        }
+                    });
+                } finally {
+                    outstanding.release();
+                }
+            });
+        } catch (RuntimeException ex) {
+            outstanding.release();
+            throw ex;
+        }
+    }
+
+    //Created on first use, once the settings have been injected.
+    private Semaphore outstanding() {
+        synchronized (lock) {
+            if (outstanding == null) {
+                outstanding = new Semaphore(Math.max(1, dispatchQueueDepth));
+            }
+            return outstanding;
+        }
+    }
+
+    //Created on first use, once the settings have been injected.
+    private StripedExecutor dispatcher() {
+        synchronized (lock) {
+            if (dispatcher == null) {
+                dispatcher = new StripedExecutor("plugin-event-dispatch", Math.max(1, dispatchThreads),
+                        Math.max(1, dispatchQueueDepth));
+            }
+            return dispatcher;
+        }
+    }
+
+    /**
+     * Stops releasing pending events, and lets the callbacks finish the events already queued for them.
+     */
+    @PreDestroy
+    public void shutdown() {
+        coalescer.shutdownNow();
+        synchronized (lock) {
+            if (dispatcher != null) {
+                dispatcher.shutdown();
+            }
+        }
     }
 
     abstract public void start();
+
+    private static class PendingEvent {
+        private final PluginMonitorEvent event;
+        private ScheduledFuture<?> dispatch;
+
+        private PendingEvent(PluginMonitorEvent event) {
+            this.event = event;
+        }
+    }
 }
@@ -0,0 +1,60 @@
+package io.github.thisisnozaku.charactercreator.plugins.monitors;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs tasks on a fixed number of single threaded stripes, choosing the stripe by a key. Tasks with the same key run
+ * one at a time in the order they were submitted, while tasks with different keys can run in parallel.
+ * <p>
+ * Each stripe queues a bounded number of tasks. Submitting to a full stripe blocks the caller until the stripe has room,
+ * which slows down whoever produces the tasks instead of letting the backlog grow without limit.
+ */
+class StripedExecutor {
+    private final ThreadPoolExecutor[] stripes;
+
+    /**
+     * @param name          the name of the threads, followed by the number of the stripe
+     * @param stripes       the number of stripes
+     * @param queueCapacity the number of tasks each stripe queues before submitters block
+     */
+    StripedExecutor(String name, int stripes, int queueCapacity) {
+        this.stripes = new ThreadPoolExecutor[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity),
+                    new ThreadFactoryBuilder().setNameFormat(name + "-" + i).setDaemon(true).build(),
+                    (task, executor) -> {
+                        if (executor.isShutdown()) {
+                            throw new RejectedExecutionException("The executor has been shut down.");
+                        }
+                        try {
+                            executor.getQueue().put(task);
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                            throw new RejectedExecutionException("Interrupted while waiting for room.", ex);
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Runs the given task on the stripe of the given key, waiting for room in the stripe if it is full.
+     *
+     * @param key  the key whose tasks must run in order
+     * @param task the task
+     */
+    void execute(Object key, Runnable task) {
+        stripes[Math.floorMod(key.hashCode(), stripes.length)].execute(task);
+    }
+
+    void shutdown() {
+        for (ThreadPoolExecutor stripe : stripes) {
+            stripe.shutdown();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package io.github.thisisnozaku.charactercreator.data.access;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class AmazonS3AdapterTest {
+    /**
+     * Listings follow every page and take the object metadata from the summaries instead of requesting it.
+     */
+    @Test
+    public void streamFileInformationFollowsPages() {
+        AmazonS3 s3 = mock(AmazonS3.class);
+        ObjectListing first = page(true, summary("plugins/"), summary("plugins/a.jar"));
+        ObjectListing second = page(false, summary("plugins/b.jar"));
+        when(s3.listObjects(any(ListObjectsRequest.class))).thenReturn(first);
+        when(s3.listNextBatchOfObjects(first)).thenReturn(second);
+        AmazonS3Adapter adapter = new AmazonS3Adapter(s3, "bucket");
+
+        List<FileInformation> files;
+        try (Stream<FileInformation> listing = adapter.streamFileInformation("plugins/")) {
+            files = listing.collect(Collectors.toList());
+        }
+
+        assertEquals(Arrays.asList("plugins/a.jar", "plugins/b.jar"), files.stream()
+                .map(f -> ((AmazonS3Adapter.S3BackedFileInformation) f).getObjectKey())
+                .collect(Collectors.toList()));
+        assertEquals("etag-plugins/b.jar", files.get(1).getContentHash().get());
+        verify(s3, never()).getObjectMetadata(anyString(), anyString());
+    }
+
+    private static ObjectListing page(boolean truncated, S3ObjectSummary... summaries) {
+        ObjectListing page = mock(ObjectListing.class);
+        when(page.isTruncated()).thenReturn(truncated);
+        when(page.getObjectSummaries()).thenReturn(summaries.length > 0 ? Arrays.asList(summaries) :
+                Collections.emptyList());
+        return page;
+    }
+
+    private static S3ObjectSummary summary(String key) {
+        S3ObjectSummary summary = mock(S3ObjectSummary.class);
+        when(summary.getKey()).thenReturn(key);
+        when(summary.getETag()).thenReturn("etag-" + key);
+        return summary;
+    }
+}
@@ -0,0 +1,78 @@
+package io.github.thisisnozaku.charactercreator.data.access;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class CachingFileAccessorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * An unchanged file is read from the wrapped accessor once, a changed one again.
+     */
+    @Test
+    public void readsThroughOnceUntilChanged() throws IOException {
+        FileAccessor storage = storage();
+        CachingFileAccessor cache = new CachingFileAccessor(storage, folder.getRoot().toPath(), 1024);
+
+        assertEquals("content", read(cache, file("a.jar", "v1")));
+        assertEquals("content", read(cache, file("a.jar", "v1")));
+        read(cache, file("a.jar", "v2"));
+
+        verify(storage, times(2)).getContent(any(FileInformation.class));
+        assertEquals(Long.valueOf(1), cache.getStatistics().get("hits"));
+        assertEquals(Long.valueOf(2), cache.getStatistics().get("misses"));
+    }
+
+    /**
+     * The least recently read copies are evicted to stay within the size limit, and survive a restart otherwise.
+     */
+    @Test
+    public void evictsLeastRecentlyUsed() throws IOException {
+        FileAccessor storage = storage();
+        CachingFileAccessor cache = new CachingFileAccessor(storage, folder.getRoot().toPath(), 16);
+        read(cache, file("a.jar", "v1"));
+        read(cache, file("b.jar", "v1"));
+        read(cache, file("c.jar", "v1"));
+        assertEquals(Long.valueOf(1), cache.getStatistics().get("evictions"));
+
+        CachingFileAccessor restarted = new CachingFileAccessor(storage, folder.getRoot().toPath(), 16);
+        read(restarted, file("c.jar", "v1"));
+        assertEquals(Long.valueOf(1), restarted.getStatistics().get("hits"));
+    }
+
+    private static FileAccessor storage() throws IOException {
+        FileAccessor storage = mock(FileAccessor.class);
+        when(storage.getContent(any(FileInformation.class))).thenAnswer(invocation ->
+                Optional.of(new ByteArrayInputStream("content".getBytes(StandardCharsets.UTF_8))));
+        return storage;
+    }
+
+    private static FileInformation file(String name, String hash) throws IOException {
+        return new FileInformation(new URL("http://bucket/plugins/" + name + "?signature=" + System.nanoTime())) {
+            @Override
+            public Optional<String> getContentHash() {
+                return Optional.of(hash);
+            }
+        };
+    }
+
+    private static String read(FileAccessor accessor, FileInformation file) throws IOException {
+        try (InputStream in = accessor.getContent(file).get()) {
+            return new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package io.github.thisisnozaku.charactercreator.data.access;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class CircuitBreakingFileAccessorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Failed reads fall back to the last known good copy, and once the breaker is open the storage isn't called.
+     */
+    @Test
+    public void servesLastKnownGoodContent() throws IOException {
+        FileAccessor storage = mock(FileAccessor.class);
+        when(storage.getContent(any(FileInformation.class)))
+                .thenReturn(Optional.of(new ByteArrayInputStream("content".getBytes(StandardCharsets.UTF_8))))
+                .thenThrow(new IOException("Service unavailable"));
+        CircuitBreakingFileAccessor accessor = breaker(storage);
+
+        assertEquals("content", read(accessor, file("a.jar", "v1")));
+        assertEquals("content", read(accessor, file("a.jar", "v2")));
+        assertEquals("content", read(accessor, file("a.jar", "v3")));
+
+        verify(storage, times(2)).getContent(any(FileInformation.class));
+    }
+
+    /**
+     * Content is copied while it is read, and a read which is abandoned before the end keeps the previous copy.
+     */
+    @Test
+    public void copiesWhileReading() throws IOException {
+        FileAccessor storage = mock(FileAccessor.class);
+        when(storage.getContent(any(FileInformation.class)))
+                .thenReturn(Optional.of(new ByteArrayInputStream("content".getBytes(StandardCharsets.UTF_8))))
+                .thenReturn(Optional.of(new ByteArrayInputStream("changed".getBytes(StandardCharsets.UTF_8))))
+                .thenThrow(new IOException("Service unavailable"));
+        CircuitBreakingFileAccessor accessor = new CircuitBreakingFileAccessor(storage, folder.getRoot().toPath(),
+                1024, 20, 0.5, 60000, 60000);
+
+        try (InputStream in = accessor.getContent(file("a.jar", "v1")).get()) {
+            assertEquals('c', in.read());
+            assertEquals(0, Arrays.stream(folder.getRoot().list()).filter(name -> !name.endsWith(".tmp")).count());
+            ByteStreams.exhaust(in);
+        }
+        try (InputStream in = accessor.getContent(file("a.jar", "v2")).get()) {
+            assertEquals('c', in.read());
+        }
+
+        assertEquals("content", read(accessor, file("a.jar", "v3")));
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    /**
+     * A failed listing falls back to the last complete listing.
+     */
+    @Test
+    public void servesLastKnownListing() throws IOException {
+        FileAccessor storage = mock(FileAccessor.class);
+        when(storage.streamFileInformation("plugins"))
+                .thenReturn(Stream.of(file("a.jar", "v1"), file("b.jar", "v1")))
+                .thenThrow(new IllegalStateException("Service unavailable"));
+        CircuitBreakingFileAccessor accessor = breaker(storage);
+
+        List<String> listed = locations(accessor);
+        assertEquals(Arrays.asList("http://bucket/plugins/a.jar", "http://bucket/plugins/b.jar"), listed);
+        assertEquals(listed, locations(accessor));
+    }
+
+    /**
+     * Once the breaker has opened, listing the known directories again succeeds in closing it.
+     */
+    @Test
+    public void revalidationClosesBreaker() throws Exception {
+        FileAccessor storage = mock(FileAccessor.class);
+        AtomicInteger listings = new AtomicInteger();
+        when(storage.streamFileInformation("plugins")).thenAnswer(invocation -> {
+            if (listings.incrementAndGet() == 2) {
+                throw new IllegalStateException("Service unavailable");
+            }
+            return Stream.of(file("a.jar", "v1"));
+        });
+        CircuitBreakingFileAccessor accessor = new CircuitBreakingFileAccessor(storage, folder.getRoot().toPath(),
+                1024, 2, 0.5, 60000, 50);
+
+        locations(accessor);
+        locations(accessor);
+        Thread.sleep(500);
+        locations(accessor);
+
+        assertEquals(4, listings.get());
+        accessor.shutdown();
+    }
+
+    /**
+     * The known good copies are kept within their size limit by removing the least recently read ones.
+     */
+    @Test
+    public void boundsKnownGoodCopies() throws IOException {
+        FileAccessor storage = mock(FileAccessor.class);
+        when(storage.getContent(any(FileInformation.class))).thenAnswer(invocation ->
+                Optional.of(new ByteArrayInputStream("12345678".getBytes(StandardCharsets.UTF_8))));
+        CircuitBreakingFileAccessor accessor = new CircuitBreakingFileAccessor(storage, folder.getRoot().toPath(),
+                10, 20, 0.5, 60000, 60000);
+
+        read(accessor, file("a.jar", "v1"));
+        read(accessor, file("b.jar", "v1"));
+
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    private CircuitBreakingFileAccessor breaker(FileAccessor storage) throws IOException {
+        return new CircuitBreakingFileAccessor(storage, folder.getRoot().toPath(), 1024, 2, 0.5, 60000, 60000);
+    }
+
+    private static List<String> locations(FileAccessor accessor) {
+        try (Stream<FileInformation> listing = accessor.streamFileInformation("plugins")) {
+            return listing.map(FileInformation::getLocation).collect(Collectors.toList());
+        }
+    }
+
+    private static FileInformation file(String name, String hash) throws IOException {
+        return new FileInformation(new URL("http://bucket/plugins/" + name)) {
+            @Override
+            public Optional<String> getContentHash() {
+                return Optional.of(hash);
+            }
+        };
+    }
+
+    private static String read(FileAccessor accessor, FileInformation file) throws IOException {
+        try (InputStream in = accessor.getContent(file).get()) {
+            return new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -1,15 +1,18 @@
 package io.github.thisisnozaku.charactercreator.data.access;
 
+import com.google.common.io.ByteStreams;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.*;
 
@@ -98,4 +101,24 @@ public class FileAccessorTest {
 
     }
 
+    /**
+     * Reading a file through a hashing stream yields the same hash as hashing it directly, and a change to the file
+     * changes its hash.
+     */
+    @Test
+    public void contentHashFollowsChanges() throws Exception {
+        Path tmp = Files.createTempFile("tmp", ".txt");
+        Files.write(tmp, "first".getBytes());
+        FileInformation fileInformation = new LocalFileSystemAccess().getFileInformation(tmp.toUri().toURL());
+        AtomicReference<String> hashed = new AtomicReference<>();
+
+        try (InputStream in = fileInformation.hashingContent(Files.newInputStream(tmp), hashed::set)) {
+            ByteStreams.copy(in, ByteStreams.nullOutputStream());
+        }
+        assertEquals(fileInformation.getContentHash().get(), hashed.get());
+
+        Files.write(tmp, "second".getBytes());
+        assertFalse(hashed.get().equals(fileInformation.getContentHash().get()));
+    }
+
 }
\ No newline at end of file
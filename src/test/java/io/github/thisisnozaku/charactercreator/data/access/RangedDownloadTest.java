@@ -0,0 +1,118 @@
+package io.github.thisisnozaku.charactercreator.data.access;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.google.common.io.ByteStreams;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class RangedDownloadTest {
+    private static final byte[] CONTENT = "0123456789".getBytes();
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private final AmazonS3 s3 = mock(AmazonS3.class);
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * The object is split into ranges of the part size, which are written to their place in the file.
+     */
+    @Test
+    public void downloadsEveryRange() throws Exception {
+        when(s3.getObject(any(GetObjectRequest.class))).thenAnswer(invocation ->
+                range((GetObjectRequest) invocation.getArguments()[0]));
+
+        assertArrayEquals(CONTENT, read(new RangedDownload(s3, executor, 4, 1)));
+        verify(s3, times(3)).getObject(any(GetObjectRequest.class));
+    }
+
+    /**
+     * A range which fails is downloaded again on its own.
+     */
+    @Test
+    public void failedRangeIsRetried() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        when(s3.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new AmazonClientException("Connection reset");
+            }
+            return range((GetObjectRequest) invocation.getArguments()[0]);
+        });
+
+        assertArrayEquals(CONTENT, read(new RangedDownload(s3, executor, 4, 2)));
+        verify(s3, times(4)).getObject(any(GetObjectRequest.class));
+    }
+
+    /**
+     * An object replaced during the download no longer matches the ETag, which fails the download without retrying.
+     */
+    @Test
+    public void replacedObjectFailsDownload() throws Exception {
+        when(s3.getObject(any(GetObjectRequest.class))).thenReturn(null);
+
+        try {
+            read(new RangedDownload(s3, executor, CONTENT.length, 3));
+            fail();
+        } catch (IOException expected) {
+            assertTrue(expected.getCause() instanceof IllegalStateException);
+            verify(s3, times(1)).getObject(any(GetObjectRequest.class));
+        }
+    }
+
+    /**
+     * The first range can be read while a later one is still downloading.
+     */
+    @Test
+    public void readsBeforeDownloadCompletes() throws Exception {
+        CountDownLatch lastRange = new CountDownLatch(1);
+        when(s3.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> {
+            GetObjectRequest request = (GetObjectRequest) invocation.getArguments()[0];
+            if (request.getRange()[0] > 0) {
+                lastRange.await();
+            }
+            return range(request);
+        });
+
+        try (ReadableByteChannel channel = new RangedDownload(s3, executor, 5, 1).stream("bucket", "key",
+                CONTENT.length, "etag")) {
+            ByteBuffer first = ByteBuffer.allocate(CONTENT.length);
+            assertEquals(5, channel.read(first));
+            lastRange.countDown();
+            assertEquals(5, channel.read(first));
+            assertArrayEquals(CONTENT, first.array());
+        }
+    }
+
+    private static byte[] read(RangedDownload download) throws IOException {
+        try (ReadableByteChannel channel = download.stream("bucket", "key", CONTENT.length, "etag")) {
+            return ByteStreams.toByteArray(Channels.newInputStream(channel));
+        }
+    }
+
+    private static S3Object range(GetObjectRequest request) {
+        long[] range = request.getRange();
+        S3Object object = new S3Object();
+        object.setObjectContent(new ByteArrayInputStream(Arrays.copyOfRange(CONTENT, (int) range[0],
+                (int) range[1] + 1)));
+        return object;
+    }
+}
@@ -0,0 +1,174 @@
+package io.github.thisisnozaku.charactercreator.data.access;
+
+import com.google.common.io.ByteStreams;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReplicatedFileAccessorTest {
+    private final List<ReplicatedFileAccessor> accessors = new ArrayList<>();
+
+    @After
+    public void shutdown() {
+        accessors.forEach(ReplicatedFileAccessor::shutdown);
+    }
+
+    /**
+     * Once both replicas have been measured, reads go to the faster one.
+     */
+    @Test
+    public void readsFromFastestReplica() throws IOException {
+        DelayedReplica slow = new DelayedReplica("slow", 100);
+        DelayedReplica fast = new DelayedReplica("fast", 0);
+        ReplicatedFileAccessor accessor = accessor(60000, slow, fast);
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(read(accessor, "plugins/a.jar").endsWith("plugins/a.jar"));
+        }
+
+        assertEquals(1, slow.reads.get());
+        assertEquals(4, fast.reads.get());
+    }
+
+    /**
+     * A read taking longer than the hedge delay is sent to the next replica, which answers first.
+     */
+    @Test
+    public void hedgesSlowReads() throws IOException {
+        DelayedReplica slow = new DelayedReplica("slow", 2000);
+        DelayedReplica fast = new DelayedReplica("fast", 0);
+        ReplicatedFileAccessor accessor = accessor(50, slow, fast);
+
+        long start = System.currentTimeMillis();
+        assertEquals("fast/plugins/a.jar", read(accessor, "plugins/a.jar"));
+
+        assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+
+    /**
+     * A failed read moves on to the next replica straight away, and listed files keep the location of the first one.
+     */
+    @Test
+    public void failsOverToNextReplica() throws IOException {
+        DelayedReplica broken = new DelayedReplica("broken", 0);
+        broken.failing = true;
+        DelayedReplica healthy = new DelayedReplica("healthy", 0);
+        ReplicatedFileAccessor accessor = accessor(60000, broken, healthy);
+
+        FileInformation file = accessor.getFileInformation("http://broken/plugins/a.jar");
+        assertEquals("http://broken/plugins/a.jar", file.getLocation());
+        assertEquals("healthy/plugins/a.jar", read(accessor, file));
+    }
+
+    /**
+     * Reads of files above the hedge limit wait for the replica they went to, and don't count towards its latency.
+     */
+    @Test
+    public void largeReadsAreNotHedged() throws IOException {
+        DelayedReplica slow = new DelayedReplica("slow", 300);
+        DelayedReplica fast = new DelayedReplica("fast", 0);
+        ReplicatedFileAccessor accessor = accessor(50, 0, slow, fast);
+
+        assertEquals("slow/plugins/a.jar", read(accessor, "plugins/a.jar"));
+
+        assertEquals(0, fast.reads.get());
+        assertTrue(accessor.getStatistics().get("slow").get("latencyMillis") < 300);
+    }
+
+    /**
+     * Replicas are told apart by name in the statistics, so two replicas with the same name are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDuplicateReplicaNames() {
+        accessor(50, new DelayedReplica("replica", 0), new DelayedReplica("replica", 0));
+    }
+
+    private ReplicatedFileAccessor accessor(long hedgeMillis, DelayedReplica... replicas) {
+        return accessor(hedgeMillis, Long.MAX_VALUE, replicas);
+    }
+
+    private ReplicatedFileAccessor accessor(long hedgeMillis, long hedgeMaxBytes, DelayedReplica... replicas) {
+        List<ReplicatedFileAccessor.Replica> configured = new ArrayList<>();
+        Arrays.stream(replicas).forEach(replica ->
+                configured.add(new ReplicatedFileAccessor.Replica(replica.name, replica, "http://" + replica.name + "/")));
+        ReplicatedFileAccessor accessor = new ReplicatedFileAccessor(configured, hedgeMillis, hedgeMaxBytes, 0.5,
+                60000);
+        accessors.add(accessor);
+        return accessor;
+    }
+
+    private static String read(ReplicatedFileAccessor accessor, String path) throws IOException {
+        return read(accessor, accessor.getFileInformation(path));
+    }
+
+    private static String read(FileAccessor accessor, FileInformation file) throws IOException {
+        try (InputStream in = accessor.getContent(file).get()) {
+            return new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Stand-in for a bucket replica, answering every read with its name and the path read after a fixed delay.
+     */
+    private static class DelayedReplica implements FileAccessor {
+        private final String name;
+        private final long delayMillis;
+        private final AtomicInteger reads = new AtomicInteger();
+        private volatile boolean failing;
+
+        private DelayedReplica(String name, long delayMillis) {
+            this.name = name;
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public FileInformation getFileInformation(String path) throws MalformedURLException {
+            return getFileInformation(new URL("http://" + name + "/" + path));
+        }
+
+        @Override
+        public FileInformation getFileInformation(URL path) {
+            return new FileInformation(path) {
+                @Override
+                public Optional<Long> getSize() {
+                    return Optional.of(1024L);
+                }
+            };
+        }
+
+        @Override
+        public Stream<FileInformation> streamFileInformation(String path) {
+            return Stream.empty();
+        }
+
+        @Override
+        public <T extends FileInformation> Optional<InputStream> getContent(T file) throws IOException {
+            reads.incrementAndGet();
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            if (failing) {
+                throw new IOException(name + " is unavailable");
+            }
+            String content = name + file.getFileUrl().getPath();
+            return Optional.of(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+}
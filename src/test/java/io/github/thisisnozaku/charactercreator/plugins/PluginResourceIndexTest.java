@@ -0,0 +1,104 @@
+package io.github.thisisnozaku.charactercreator.plugins;
+
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PluginResourceIndexTest {
+    /**
+     * Every file entry of the bundle is indexed along with the resource mapping aliases.
+     */
+    @Test
+    public void build() throws IOException {
+        Map<String, String> files = new HashMap<>();
+        files.put("/character.html", "<html></html>");
+        files.put("/js/sheet.js", "window.character = function() {};");
+        files.put("/js/", "");
+        Bundle bundle = bundle(files);
+
+        PluginResourceIndex index = PluginResourceIndex.build(bundle,
+                Collections.singletonMap("character", "character.html"));
+
+        PluginResourceIndex.Entry sheet = index.lookup("js/sheet.js").get();
+        assertEquals("js/sheet.js", sheet.getPath());
+        assertEquals(files.get("/js/sheet.js").length(), sheet.getSize());
+        assertEquals(64, sheet.getContentHash().length());
+        assertEquals("text/html", index.lookup("character.html").get().getContentType());
+        assertEquals("character.html", index.lookup("character").get().getPath());
+        assertFalse(index.lookup("js/").isPresent());
+        assertFalse(index.lookup("missing.css").isPresent());
+    }
+
+    /**
+     * Entries whose size the bundle knows aren't read until their content hash is asked for, and only once.
+     */
+    @Test
+    public void hashesOnFirstUse() throws IOException {
+        AtomicInteger reads = new AtomicInteger();
+        Bundle bundle = bundle(Collections.singletonMap("/js/sheet.js", "window.character = function() {};"), true,
+                reads);
+
+        PluginResourceIndex.Entry sheet = PluginResourceIndex.build(bundle, Collections.emptyMap())
+                .lookup("js/sheet.js").get();
+
+        assertEquals(0, reads.get());
+        String hash = sheet.getContentHash();
+        assertEquals(hash, sheet.getContentHash());
+        assertEquals(1, reads.get());
+    }
+
+    private static Bundle bundle(Map<String, String> files) {
+        return bundle(files, false, new AtomicInteger());
+    }
+
+    private static Bundle bundle(Map<String, String> files, boolean knownLengths, AtomicInteger reads) {
+        URLStreamHandler handler = new URLStreamHandler() {
+            @Override
+            protected URLConnection openConnection(URL u) {
+                return new URLConnection(u) {
+                    @Override
+                    public void connect() {
+                    }
+
+                    @Override
+                    public long getContentLengthLong() {
+                        return knownLengths ? files.get(u.getPath()).getBytes(StandardCharsets.UTF_8).length : -1;
+                    }
+
+                    @Override
+                    public InputStream getInputStream() {
+                        reads.incrementAndGet();
+                        return new ByteArrayInputStream(files.get(u.getPath()).getBytes(StandardCharsets.UTF_8));
+                    }
+                };
+            }
+        };
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getLastModified()).thenReturn(1000L);
+        when(bundle.findEntries("/", "*", true)).thenAnswer(invocation -> Collections.enumeration(
+                files.keySet().stream().map(path -> {
+                    try {
+                        return new URL("bundleentry", "1.0", -1, path, handler);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }).collect(Collectors.toList())));
+        return bundle;
+    }
+}
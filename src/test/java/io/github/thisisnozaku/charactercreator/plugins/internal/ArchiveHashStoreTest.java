@@ -0,0 +1,32 @@
+package io.github.thisisnozaku.charactercreator.plugins.internal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class ArchiveHashStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Hashes written by one run are available to the next.
+     */
+    @Test
+    public void hashesSurviveRestarts() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("plugin-archives.properties");
+        ArchiveHashStore store = new ArchiveHashStore(file);
+        store.put("file:/plugins/a.jar", "abc");
+        store.put("file:/plugins/b.jar", "def");
+        store.remove("file:/plugins/b.jar");
+
+        ArchiveHashStore restarted = new ArchiveHashStore(file);
+        assertTrue(restarted.matches("file:/plugins/a.jar", "abc"));
+        assertFalse(restarted.matches("file:/plugins/a.jar", "xyz"));
+        assertFalse(restarted.matches("file:/plugins/b.jar", "def"));
+    }
+}
@@ -0,0 +1,89 @@
+package io.github.thisisnozaku.charactercreator.plugins.internal;
+
+import org.apache.felix.framework.FrameworkFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.launch.Framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import static org.junit.Assert.*;
+
+public class FrameworkStorageTest {
+    private static final String LOCATION = "file:/plugins/a.jar";
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Persistent storage is never cleaned, even when the default framework properties ask for it.
+     */
+    @Test
+    public void persistentStorageIsNotCleaned() throws IOException {
+        Path storage = folder.getRoot().toPath();
+
+        Map<String, String> config = PluginManagerImpl.frameworkConfig(ResourceBundle.getBundle("config"), storage,
+                true);
+
+        assertFalse(config.containsKey(Constants.FRAMEWORK_STORAGE_CLEAN));
+        assertEquals(storage.toAbsolutePath().toString(), config.get(Constants.FRAMEWORK_STORAGE));
+        assertEquals(Constants.FRAMEWORK_STORAGE_CLEAN_ONFIRSTINIT, PluginManagerImpl.frameworkConfig(
+                ResourceBundle.getBundle("config"), storage, false).get(Constants.FRAMEWORK_STORAGE_CLEAN));
+    }
+
+    /**
+     * A framework restarted on the same persistent storage still has the bundles installed by the previous run, so
+     * they aren't installed again.
+     */
+    @Test
+    public void bundlesSurviveRestarts() throws Exception {
+        Path storage = folder.getRoot().toPath().resolve("storage");
+        Framework first = start(storage);
+        long bundleId = first.getBundleContext().installBundle(LOCATION, bundle()).getBundleId();
+        stop(first);
+
+        Framework restarted = start(storage);
+        try {
+            Bundle kept = restarted.getBundleContext().getBundle(LOCATION);
+            assertNotNull(kept);
+            assertEquals(bundleId, kept.getBundleId());
+        } finally {
+            stop(restarted);
+        }
+    }
+
+    private static Framework start(Path storage) throws Exception {
+        Framework framework = new FrameworkFactory().newFramework(PluginManagerImpl.frameworkConfig(
+                ResourceBundle.getBundle("config"), storage, true));
+        framework.init();
+        return framework;
+    }
+
+    private static void stop(Framework framework) throws Exception {
+        framework.stop();
+        framework.waitForStop(10000);
+    }
+
+    private static InputStream bundle() throws IOException {
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.putValue(Constants.BUNDLE_MANIFESTVERSION, "2");
+        attributes.putValue(Constants.BUNDLE_SYMBOLICNAME, "test.plugin");
+        attributes.putValue(Constants.BUNDLE_VERSION, "1.0.0");
+        ByteArrayOutputStream jar = new ByteArrayOutputStream();
+        new JarOutputStream(jar, manifest).close();
+        return new ByteArrayInputStream(jar.toByteArray());
+    }
+}
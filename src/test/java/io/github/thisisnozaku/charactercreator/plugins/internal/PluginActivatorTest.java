@@ -0,0 +1,105 @@
+package io.github.thisisnozaku.charactercreator.plugins.internal;
+
+import io.github.thisisnozaku.charactercreator.plugins.PluginDescription;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+public class PluginActivatorTest {
+    private final PluginDescription popular = new PluginDescription("author", "popular", "1.0");
+    private final PluginDescription niche = new PluginDescription("author", "niche", "1.0");
+
+    /**
+     * Pinned plugins start eagerly and are never idle, everything else waits for its first request.
+     */
+    @Test
+    public void pinnedPluginsStayHot() {
+        PluginActivator activator = new PluginActivator(true, 1000,
+                PluginActivator.parsePluginList(" author/popular/1.0 ,"));
+
+        assertTrue(activator.startsEagerly(popular));
+        assertFalse(activator.startsEagerly(niche));
+        assertFalse(activator.isIdle(popular, 0, 5000));
+        assertTrue(activator.isIdle(niche, 0, 5000));
+        assertFalse(activator.isIdle(niche, 4500, 5000));
+    }
+
+    /**
+     * Requests arriving while a plugin is being started share the same start.
+     */
+    @Test
+    public void concurrentActivationsStartOnce() {
+        PluginActivator activator = new PluginActivator(true, 1000, PluginActivator.parsePluginList(""));
+        activator.dormant(niche, mock(Bundle.class));
+        CompletableFuture<Void> registration = new CompletableFuture<>();
+        AtomicInteger starts = new AtomicInteger();
+
+        CompletableFuture<Void> first = activator.activate(niche, b -> {
+            starts.incrementAndGet();
+            return registration;
+        });
+        CompletableFuture<Void> second = activator.activate(niche, b -> {
+            starts.incrementAndGet();
+            return registration;
+        });
+        registration.complete(null);
+
+        assertSame(first, second);
+        assertEquals(1, starts.get());
+        assertFalse(activator.isDormant(niche));
+    }
+
+    /**
+     * A plugin stopped for being idle is started again by the next request for it.
+     */
+    @Test
+    public void idlePluginsStartAgain() {
+        PluginActivator activator = new PluginActivator(true, 1000, PluginActivator.parsePluginList(""));
+        Bundle bundle = mock(Bundle.class);
+        AtomicInteger starts = new AtomicInteger();
+        activator.dormant(niche, bundle);
+
+        CompletableFuture<Void> first = activator.activate(niche, b -> {
+            starts.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        });
+        assertTrue(first.isDone());
+        assertFalse(activator.isDormant(niche));
+
+        activator.dormant(niche, bundle);
+        CompletableFuture<Void> second = activator.activate(niche, b -> {
+            starts.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        });
+
+        assertTrue(second.isDone());
+        assertEquals(2, starts.get());
+        assertFalse(activator.isDormant(niche));
+    }
+
+    /**
+     * Asking for a plugin which isn't dormant doesn't keep later activations from starting it.
+     */
+    @Test
+    public void activationWithoutDormantBundleIsNotRemembered() {
+        PluginActivator activator = new PluginActivator(true, 1000, PluginActivator.parsePluginList(""));
+        AtomicInteger starts = new AtomicInteger();
+
+        assertTrue(activator.activate(niche, b -> {
+            starts.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        }).isDone());
+        activator.dormant(niche, mock(Bundle.class));
+        activator.activate(niche, b -> {
+            starts.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        });
+
+        assertEquals(1, starts.get());
+    }
+}
@@ -0,0 +1,56 @@
+package io.github.thisisnozaku.charactercreator.plugins.internal;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class PluginDescriptorReaderTest {
+    private final PluginDescriptorReader reader = new PluginDescriptorReader();
+
+    /**
+     * A plugin.json description is read into a descriptor.
+     */
+    @Test
+    public void parseJson() throws IOException {
+        PluginDescriptor descriptor = reader.parseJson(stream("{" +
+                "\"description\":{\"author\":\"Damien Marble\",\"system\":\"Test Plugin\",\"version\":\"1.0.0\",\"license\":\"MIT\"}," +
+                "\"resources\":{\"character\":\"character.html\",\"description\":\"description.html\"}" +
+                "}"));
+        assertEquals("Damien Marble", descriptor.getAuthor());
+        assertEquals("Test Plugin", descriptor.getSystem());
+        assertEquals("1.0.0", descriptor.getVersion());
+        assertEquals("character.html", descriptor.getResourceMappings().get("character"));
+        assertEquals("description.html", descriptor.getResourceMappings().get("description"));
+        assertEquals("MIT", descriptor.getMetadata().get("license"));
+    }
+
+    /**
+     * A plugin.xml description with the same layout gives the same descriptor.
+     */
+    @Test
+    public void parseXml() throws IOException {
+        PluginDescriptor descriptor = reader.parseXml(stream("<plugin>" +
+                "<description><author>Damien Marble</author><system>Test Plugin</system><version>1.0.0</version></description>" +
+                "<resources><character>character.html</character></resources>" +
+                "</plugin>"));
+        assertEquals("Damien Marble", descriptor.getAuthor());
+        assertEquals("Test Plugin", descriptor.getSystem());
+        assertEquals("1.0.0", descriptor.getVersion());
+        assertEquals("character.html", descriptor.getResourceMappings().get("character"));
+        assertTrue(descriptor.getMetadata().isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void parseMissingVersion() throws IOException {
+        reader.parseJson(stream("{\"description\":{\"author\":\"Damien Marble\",\"system\":\"Test Plugin\"}}"));
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,117 @@
+package io.github.thisisnozaku.charactercreator.plugins.internal;
+
+import io.github.thisisnozaku.charactercreator.plugins.PluginDescription;
+import io.github.thisisnozaku.charactercreator.plugins.PluginReadiness.State;
+import org.junit.After;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class PluginLoaderTest {
+    private final PluginDescription loading = new PluginDescription("author", "loading", "1.0");
+    private final PluginDescription missing = new PluginDescription("author", "missing", "1.0");
+    private final CountDownLatch finish = new CountDownLatch(1);
+    private PluginLoader loader;
+
+    @After
+    public void shutdown() {
+        finish.countDown();
+        loader.shutdown();
+    }
+
+    /**
+     * Without any archive left to describe, only plugins actually being loaded count as loading.
+     */
+    @Test
+    public void onlyDescribedPluginsAreLoading() throws Exception {
+        loader = new PluginLoader(1, 10000);
+        loader.submit("archive", () -> {
+            finish.await();
+            return Optional.empty();
+        });
+        assertTrue(loader.isLoading(missing));
+
+        loader.described("archive", loading);
+
+        assertTrue(loader.isLoading(loading));
+        assertFalse(loader.isLoading(missing));
+    }
+
+    /**
+     * An archive whose description isn't read within the timeout no longer holds up answers about other plugins.
+     */
+    @Test
+    public void undescribedArchivesExpire() throws Exception {
+        loader = new PluginLoader(1, 100);
+        loader.submit("archive", () -> {
+            finish.await();
+            return Optional.empty();
+        });
+        assertTrue(loader.isLoading(missing));
+
+        Thread.sleep(300);
+
+        assertFalse(loader.isLoading(missing));
+    }
+
+    /**
+     * A load which takes longer than the timeout is reported as failed without being interrupted.
+     */
+    @Test
+    public void timedOutLoadIsNotInterrupted() throws Exception {
+        loader = new PluginLoader(1, 100);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        CountDownLatch finished = new CountDownLatch(1);
+        CompletableFuture<Optional<Bundle>> load = loader.submit("archive", () -> {
+            try {
+                finish.await();
+            } catch (InterruptedException ex) {
+                interrupted.set(true);
+            }
+            finished.countDown();
+            return Optional.empty();
+        });
+
+        try {
+            load.join();
+            fail();
+        } catch (CompletionException expected) {
+            assertTrue(expected.getCause() instanceof TimeoutException);
+        }
+        assertEquals(State.FAILED, loader.getStates().get("archive"));
+
+        finish.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertFalse(interrupted.get());
+    }
+
+    /**
+     * A load run on the calling thread returns only once it has finished, even after it was reported as timed out.
+     */
+    @Test
+    public void runWaitsForTimedOutLoad() throws Exception {
+        loader = new PluginLoader(1, 100);
+        Thread caller = Thread.currentThread();
+        AtomicBoolean finished = new AtomicBoolean();
+
+        loader.run("archive", () -> {
+            assertEquals(State.LOADING, loader.getStates().get("archive"));
+            Thread.sleep(300);
+            assertEquals(State.FAILED, loader.getStates().get("archive"));
+            finished.set(Thread.currentThread() == caller);
+            return Optional.empty();
+        });
+
+        assertTrue(finished.get());
+        assertEquals(State.FAILED, loader.getStates().get("archive"));
+    }
+}
@@ -0,0 +1,164 @@
+package io.github.thisisnozaku.charactercreator.plugins.internal;
+
+import com.google.common.collect.ImmutableSet;
+import io.github.thisisnozaku.charactercreator.data.access.FileInformation;
+import io.github.thisisnozaku.charactercreator.plugins.monitors.PluginMonitor;
+import io.github.thisisnozaku.charactercreator.plugins.monitors.PluginMonitorEvent;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import static io.github.thisisnozaku.charactercreator.plugins.monitors.PluginMonitor.EventType.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class PluginReconcilerTest {
+    private final List<String> handled = new ArrayList<>();
+    private final PluginReconciler reconciler = new PluginReconciler(new RecordingMonitor(),
+            location -> location);
+
+    /**
+     * Only archives which differ from the installed bundles produce events, and nothing needs their content.
+     */
+    @Test
+    public void reportsOnlyDifferences() {
+        FileInformation unchanged = archive("unchanged", "a");
+        FileInformation modified = archive("modified", "b");
+        FileInformation created = archive("created", "c");
+
+        int events = reconciler.reconcile(Stream.of(unchanged, modified, created),
+                ImmutableSet.of("unchanged", "modified", "deleted"), info -> info == unchanged);
+
+        assertEquals(3, events);
+        assertEquals(ImmutableSet.of("MODIFIED modified", "CREATED created", "DELETED deleted"),
+                ImmutableSet.copyOf(handled));
+        verify(unchanged, never()).getContentHash();
+    }
+
+    /**
+     * A difference is reported once per version of the archive, however long it takes to resolve.
+     */
+    @Test
+    public void reportsEachVersionOnce() {
+        reconciler.reconcile(Stream.of(archive("plugin", "a")), ImmutableSet.of(), info -> false);
+        reconciler.reconcile(Stream.of(archive("plugin", "a")), ImmutableSet.of(), info -> false);
+        reconciler.reconcile(Stream.of(archive("plugin", "b")), ImmutableSet.of(), info -> false);
+
+        assertEquals(2, handled.size());
+    }
+
+    /**
+     * A difference which was resolved and comes back is reported again.
+     */
+    @Test
+    public void reportsRecurringDifferences() {
+        reconciler.reconcile(Stream.of(archive("plugin", "a")), ImmutableSet.of(), info -> false);
+        reconciler.reconcile(Stream.of(archive("plugin", "a")), ImmutableSet.of("plugin"), info -> true);
+        reconciler.reconcile(Stream.of(archive("plugin", "a")), ImmutableSet.of(), info -> false);
+
+        assertEquals(2, handled.size());
+    }
+
+    /**
+     * A listing which fails part way through reports nothing, rather than every archive after it as deleted.
+     */
+    @Test
+    public void failedListingReportsNothing() {
+        Stream<FileInformation> failing = Stream.of("first", "second").map(location -> {
+            if (location.equals("second")) {
+                throw new IllegalStateException("Listing failed");
+            }
+            return archive(location, "a");
+        });
+
+        try {
+            reconciler.reconcile(failing, ImmutableSet.of("first", "second"), info -> true);
+            fail();
+        } catch (IllegalStateException expected) {
+            assertTrue(handled.isEmpty());
+        }
+    }
+
+    /**
+     * Events name the archives by the path the monitor uses for them, not by their location.
+     */
+    @Test
+    public void reportsPaths() {
+        PluginReconciler reconciler = new PluginReconciler(new RecordingMonitor(),
+                location -> location.substring("http://bucket/".length()));
+
+        reconciler.reconcile(Stream.of(archive("http://bucket/plugins/created.jar", "a")),
+                ImmutableSet.of("http://bucket/plugins/deleted.jar"), info -> false);
+
+        assertEquals(ImmutableSet.of("CREATED plugins/created.jar", "DELETED plugins/deleted.jar"),
+                ImmutableSet.copyOf(handled));
+    }
+
+    /**
+     * An archive whose size and modification time haven't changed since it was found unchanged isn't compared again.
+     */
+    @Test
+    public void comparesChangedArchivesOnly() {
+        AtomicInteger comparisons = new AtomicInteger();
+        Predicate<FileInformation> isUnchanged = info -> {
+            comparisons.incrementAndGet();
+            return true;
+        };
+
+        reconciler.reconcile(Stream.of(archive("plugin", "a", 10, 1000)), ImmutableSet.of("plugin"), isUnchanged);
+        reconciler.reconcile(Stream.of(archive("plugin", "a", 10, 1000)), ImmutableSet.of("plugin"), isUnchanged);
+        reconciler.reconcile(Stream.of(archive("plugin", "a", 10, 2000)), ImmutableSet.of("plugin"), isUnchanged);
+
+        assertEquals(2, comparisons.get());
+        assertTrue(handled.isEmpty());
+    }
+
+    private static FileInformation archive(String location, String hash) {
+        FileInformation archive = mock(FileInformation.class);
+        when(archive.getLocation()).thenReturn(location);
+        when(archive.getContentHash()).thenReturn(Optional.of(hash));
+        when(archive.getSize()).thenReturn(Optional.empty());
+        when(archive.getLastModifiedTimestamp()).thenReturn(Optional.empty());
+        return archive;
+    }
+
+    private static FileInformation archive(String location, String hash, long size, long lastModified) {
+        FileInformation archive = archive(location, hash);
+        when(archive.getSize()).thenReturn(Optional.of(size));
+        when(archive.getLastModifiedTimestamp()).thenReturn(Optional.of(Instant.ofEpochMilli(lastModified)));
+        return archive;
+    }
+
+    private class RecordingMonitor implements PluginMonitor {
+        @Override
+        public PluginMonitor onDeleted(Consumer<PluginMonitorEvent> consumer) {
+            return this;
+        }
+
+        @Override
+        public PluginMonitor onCreated(Consumer<PluginMonitorEvent> consumer) {
+            return this;
+        }
+
+        @Override
+        public PluginMonitor onModified(Consumer<PluginMonitorEvent> runnable) {
+            return this;
+        }
+
+        @Override
+        public void removeConsumer(Consumer consumer, EventType type) {
+        }
+
+        @Override
+        public void handle(PluginMonitorEvent event) {
+            handled.add(event.getEventType() + " " + event.getPluginUrl());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package io.github.thisisnozaku.charactercreator.plugins.internal;
+
+import io.github.thisisnozaku.charactercreator.plugins.GamePlugin;
+import io.github.thisisnozaku.charactercreator.plugins.PluginDescription;
+import io.github.thisisnozaku.charactercreator.plugins.PluginWrapper;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PluginRegistryTest {
+    private final PluginDescription description = new PluginDescription("Damien Marble", "Game System", "1.1");
+
+    /**
+     * Registered plugins are visible through the registry.
+     */
+    @Test
+    public void register() {
+        PluginRegistry registry = new PluginRegistry();
+        Bundle bundle = bundle(1L);
+        registry.register(wrapper(Collections.singletonMap("character", "character.html")), bundle, null);
+
+        assertTrue(registry.get(description).isPresent());
+        assertEquals(bundle, registry.get(description).get().getBundle());
+        assertEquals("character.html", registry.get(description).get().getResourceMappings().get("character"));
+    }
+
+    /**
+     * The description collection is a copy which later changes do not affect.
+     */
+    @Test
+    public void descriptionsAreStable() {
+        PluginRegistry registry = new PluginRegistry();
+        Bundle bundle = bundle(1L);
+        registry.register(wrapper(Collections.emptyMap()), bundle, null);
+        Collection<PluginDescription> descriptions = registry.getDescriptions();
+
+        registry.unregister(description, bundle);
+
+        assertEquals(1, descriptions.size());
+        assertTrue(registry.getDescriptions().isEmpty());
+    }
+
+    /**
+     * Unregistering from a bundle which no longer provides the plugin leaves the current entry in place.
+     */
+    @Test
+    public void unregisterReplacedBundle() {
+        PluginRegistry registry = new PluginRegistry();
+        Bundle oldBundle = bundle(1L);
+        Bundle newBundle = bundle(2L);
+        registry.register(wrapper(Collections.emptyMap()), oldBundle, null);
+        registry.register(wrapper(Collections.emptyMap()), newBundle, null);
+
+        assertFalse(registry.unregister(description, oldBundle).isPresent());
+        assertEquals(newBundle, registry.get(description).get().getBundle());
+    }
+
+    /**
+     * A retired entry is drained once every lease on it is closed, however often each lease is closed.
+     */
+    @Test
+    public void retiredEntryDrainsWhenLeasesClose() {
+        PluginRegistry registry = new PluginRegistry();
+        PluginRegistry.Entry entry = registry.register(wrapper(Collections.emptyMap()), bundle(1L), null);
+        PluginRegistry.Lease first = entry.lease();
+        PluginRegistry.Lease second = entry.lease();
+
+        CompletableFuture<Void> drained = entry.retire();
+        first.close();
+        first.close();
+
+        assertFalse(drained.isDone());
+        second.close();
+        assertTrue(drained.isDone());
+        assertEquals(0, entry.getInFlight());
+    }
+
+    private PluginWrapper wrapper(Map<String, String> mappings) {
+        return new PluginWrapper(description, mock(GamePlugin.class), null, mappings);
+    }
+
+    private Bundle bundle(long id) {
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getBundleId()).thenReturn(id);
+        return bundle;
+    }
+}
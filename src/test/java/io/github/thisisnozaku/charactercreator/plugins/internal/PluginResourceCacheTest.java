@@ -0,0 +1,71 @@
+package io.github.thisisnozaku.charactercreator.plugins.internal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.UrlResource;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class PluginResourceCacheTest {
+    private final PluginResourceCache cache = new PluginResourceCache(1024, 16);
+    private File small;
+    private File large;
+
+    @Before
+    public void createEntries() throws Exception {
+        small = File.createTempFile("small", ".css");
+        Files.write(small.toPath(), new byte[8]);
+        large = File.createTempFile("large", ".png");
+        Files.write(large.toPath(), new byte[32]);
+    }
+
+    @After
+    public void deleteEntries() {
+        small.delete();
+        large.delete();
+    }
+
+    /**
+     * A resource cached for an older revision of a plugin is a miss for the new revision.
+     */
+    @Test
+    public void newRevisionMissesOldEntries() throws Exception {
+        Bundle first = bundle(1);
+        Bundle second = bundle(2);
+
+        cache.get("style.css", first, 8);
+        cache.get("style.css", first, 8);
+        cache.get("style.css", second, 8);
+
+        assertEquals(Long.valueOf(1), cache.getStatistics().get("hits"));
+        assertEquals(Long.valueOf(2), cache.getStatistics().get("misses"));
+    }
+
+    /**
+     * A resource known to be too large is served from its bundle without being read.
+     */
+    @Test
+    public void largeResourcesAreNotRead() throws Exception {
+        Bundle bundle = bundle(1);
+
+        Resource resource = cache.get("image.png", bundle, 32).get();
+
+        assertTrue(resource instanceof UrlResource);
+        assertEquals(Long.valueOf(0), cache.getStatistics().get("entries"));
+    }
+
+    private Bundle bundle(long id) throws Exception {
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getBundleId()).thenReturn(id);
+        when(bundle.getEntry("style.css")).thenReturn(small.toURI().toURL());
+        when(bundle.getEntry("image.png")).thenReturn(large.toURI().toURL());
+        return bundle;
+    }
+}
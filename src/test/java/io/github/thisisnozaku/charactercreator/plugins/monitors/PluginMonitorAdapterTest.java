@@ -0,0 +1,228 @@
+package io.github.thisisnozaku.charactercreator.plugins.monitors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static io.github.thisisnozaku.charactercreator.plugins.monitors.PluginMonitor.EventType.*;
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PluginMonitorAdapterTest {
+    private static final String URL = "plugins/a.jar";
+    private final ScheduledExecutorService coalescer = mock(ScheduledExecutorService.class);
+    //The releases scheduled by the adapter, run by the test to let the quiet window pass.
+    private final List<Runnable> scheduled = new ArrayList<>();
+    private final BlockingQueue<PluginMonitorEvent> handled = new LinkedBlockingQueue<>();
+    private PluginMonitorAdapter monitor;
+
+    @Before
+    public void setUp() {
+        when(coalescer.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class))).thenAnswer(invocation -> {
+            scheduled.add((Runnable) invocation.getArguments()[0]);
+            return mock(ScheduledFuture.class);
+        });
+        monitor = new PluginMonitorAdapter(coalescer) {
+            @Override
+            public void start() {
+            }
+        };
+        monitor.onCreated(handled::add).onModified(handled::add).onDeleted(handled::add);
+    }
+
+    @After
+    public void tearDown() {
+        monitor.shutdown();
+    }
+
+    /**
+     * An event reaches the callbacks only once its quiet window has passed.
+     */
+    @Test
+    public void waitsForQuietWindow() throws InterruptedException {
+        monitor.handle(new PluginMonitorEvent(CREATED, URL));
+
+        assertNull(handled.poll(100, TimeUnit.MILLISECONDS));
+        elapse();
+        assertEquals(CREATED, next().getEventType());
+    }
+
+    /**
+     * A burst of events for the same plugin collapses into the last one.
+     */
+    @Test
+    public void lastEventWins() throws InterruptedException {
+        monitor.handle(new PluginMonitorEvent(DELETED, URL));
+        monitor.handle(new PluginMonitorEvent(MODIFIED, URL));
+        monitor.handle(new PluginMonitorEvent(DELETED, URL));
+        elapse();
+
+        assertEquals(DELETED, next().getEventType());
+        assertNull(handled.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * A plugin modified while its creation is still pending is reported as created.
+     */
+    @Test
+    public void modificationOfPendingCreationStaysCreation() throws InterruptedException {
+        monitor.handle(new PluginMonitorEvent(CREATED, URL));
+        monitor.handle(new PluginMonitorEvent(MODIFIED, URL));
+        elapse();
+
+        assertEquals(CREATED, next().getEventType());
+        assertNull(handled.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * A plugin deleted while its creation is still pending is reported as deleted.
+     */
+    @Test
+    public void deletionReplacesPendingCreation() throws InterruptedException {
+        monitor.handle(new PluginMonitorEvent(CREATED, URL));
+        monitor.handle(new PluginMonitorEvent(DELETED, URL));
+        elapse();
+
+        assertEquals(DELETED, next().getEventType());
+        assertNull(handled.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Events for different plugins are not coalesced with each other.
+     */
+    @Test
+    public void keepsPluginsApart() throws InterruptedException {
+        monitor.handle(new PluginMonitorEvent(CREATED, URL));
+        monitor.handle(new PluginMonitorEvent(DELETED, "plugins/b.jar"));
+        elapse();
+
+        assertNotNull(next());
+        assertNotNull(next());
+    }
+
+    /**
+     * Once the maximum number of events is outstanding, handing over another one waits for the callbacks.
+     */
+    @Test
+    public void blocksMonitorWhileFull() throws InterruptedException {
+        CountDownLatch proceed = new CountDownLatch(1);
+        monitor.setDispatchQueueDepth(2);
+        monitor.onCreated(event -> {
+            try {
+                proceed.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        monitor.handle(new PluginMonitorEvent(CREATED, URL));
+        monitor.handle(new PluginMonitorEvent(MODIFIED, URL));
+        monitor.handle(new PluginMonitorEvent(CREATED, "plugins/b.jar"));
+        Thread source = new Thread(() -> monitor.handle(new PluginMonitorEvent(CREATED, "plugins/c.jar")));
+
+        source.start();
+        source.join(200);
+        assertTrue(source.isAlive());
+
+        elapse();
+        proceed.countDown();
+        source.join(5000);
+        assertFalse(source.isAlive());
+    }
+
+    /**
+     * The events of one plugin are handled one after the other, each callback finishing its load before the next
+     * event of the plugin reaches the callbacks.
+     */
+    @Test
+    public void loadsOfOnePluginCompleteInOrder() throws InterruptedException {
+        monitor.setQuietMillis(0);
+        List<String> loads = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(3);
+        Consumer<PluginMonitorEvent> load = event -> {
+            loads.add("start " + event.getEventType());
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            loads.add("finish " + event.getEventType());
+            done.countDown();
+        };
+        monitor.onCreated(load).onModified(load).onDeleted(load);
+
+        monitor.handle(new PluginMonitorEvent(CREATED, URL));
+        monitor.handle(new PluginMonitorEvent(MODIFIED, URL));
+        monitor.handle(new PluginMonitorEvent(DELETED, URL));
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("start CREATED", "finish CREATED", "start MODIFIED", "finish MODIFIED",
+                "start DELETED", "finish DELETED"), loads);
+    }
+
+    /**
+     * Handing over an event doesn't need the lock of the monitor, which subclasses hold while they stop.
+     */
+    @Test
+    public void handlesEventsWhileMonitorIsLocked() throws InterruptedException {
+        monitor.setQuietMillis(0);
+        Thread source = new Thread(() -> monitor.handle(new PluginMonitorEvent(CREATED, URL)));
+
+        synchronized (monitor) {
+            source.start();
+            source.join(5000);
+            assertFalse(source.isAlive());
+        }
+        assertEquals(CREATED, next().getEventType());
+    }
+
+    /**
+     * A callback removed while an event is being handled doesn't disturb the other callbacks.
+     */
+    @Test
+    public void removesConsumerDuringDispatch() throws InterruptedException {
+        monitor.setQuietMillis(0);
+        BlockingQueue<PluginMonitorEvent> removed = new LinkedBlockingQueue<>();
+        Consumer<PluginMonitorEvent> once = new Consumer<PluginMonitorEvent>() {
+            @Override
+            public void accept(PluginMonitorEvent event) {
+                removed.add(event);
+                monitor.removeConsumer(this, CREATED);
+            }
+        };
+        monitor.onCreated(once);
+
+        monitor.handle(new PluginMonitorEvent(CREATED, URL));
+        monitor.handle(new PluginMonitorEvent(CREATED, URL));
+
+        assertNotNull(next());
+        assertNotNull(next());
+        assertEquals(1, removed.size());
+    }
+
+    private void elapse() {
+        //Superseded releases find their event replaced and do nothing, just like cancelled ones.
+        new ArrayList<>(scheduled).forEach(Runnable::run);
+        scheduled.clear();
+    }
+
+    private PluginMonitorEvent next() throws InterruptedException {
+        PluginMonitorEvent event = handled.poll(5, TimeUnit.SECONDS);
+        assertNotNull(event);
+        return event;
+    }
+}
@@ -0,0 +1,76 @@
+package io.github.thisisnozaku.charactercreator.plugins.monitors;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class StripedExecutorTest {
+    private StripedExecutor executor;
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Tasks with the same key run in the order they were submitted.
+     */
+    @Test
+    public void keepsOrderWithinStripe() throws InterruptedException {
+        executor = new StripedExecutor("test", 4, 10);
+        List<Integer> ran = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(100);
+
+        for (int i = 0; i < 100; i++) {
+            int task = i;
+            executor.execute("plugins/a.jar", () -> {
+                ran.add(task);
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(IntStream.range(0, 100).boxed().collect(Collectors.toList()), ran);
+    }
+
+    /**
+     * Submitting to a full stripe waits until the stripe has room.
+     */
+    @Test
+    public void blocksWhileStripeIsFull() throws InterruptedException {
+        executor = new StripedExecutor("test", 1, 1);
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        executor.execute("a", () -> {
+            running.countDown();
+            try {
+                proceed.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        executor.execute("a", () -> {
+        });
+        CountDownLatch ran = new CountDownLatch(1);
+        Thread submitter = new Thread(() -> executor.execute("a", ran::countDown));
+
+        submitter.start();
+        submitter.join(200);
+        assertTrue(submitter.isAlive());
+
+        proceed.countDown();
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        submitter.join(5000);
+        assertFalse(submitter.isAlive());
+    }
+}